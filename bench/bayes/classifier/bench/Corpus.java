@@ -0,0 +1,38 @@
+package bayes.classifier.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates the training corpus for the benchmarks. The corpus defaults to the
+ * enron1 set from docs.zip and can be changed with -Dbench.corpus=dir, where
+ * dir has spam and ham subdirectories.
+ */
+final class Corpus {
+	static final File DIR = new File(System.getProperty("bench.corpus",
+			"docs/enron1"));
+	static final File SPAM = new File(DIR, "spam");
+	static final File HAM = new File(DIR, "ham");
+
+	private Corpus() {
+	}
+
+	/**
+	 * Read every file of the given directory into memory.
+	 */
+	static List<byte[]> read(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("No corpus at " + dir
+					+ "; run ant unzip or set -Dbench.corpus");
+		}
+		List<byte[]> messages = new ArrayList<>();
+		for (File f : files) {
+			messages.add(Files.readAllBytes(f.toPath()));
+		}
+		return messages;
+	}
+}
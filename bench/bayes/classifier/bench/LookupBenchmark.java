@@ -0,0 +1,69 @@
+package bayes.classifier.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single word lookups and vocabulary enumeration against a trained model.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+public class LookupBenchmark {
+	private static final int LOOKUPS = 1024;
+
+	String[] lookups;
+
+	@Setup(Level.Trial)
+	public void pickWords(TrainedModel model) {
+		Random r = new Random(220);
+		lookups = new String[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			lookups[i] = i % 10 == 0 ? "unknown" + i : model.words.get(r
+					.nextInt(model.words.size()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public double probSpamGivenWord(TrainedModel model) {
+		double sum = 0;
+		for (String w : lookups) {
+			Double p = model.classifier.probSpamGivenWord(w);
+			if (p != null) {
+				sum += p;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Walks the whole word set; getting the set alone only creates a view.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void getAllWords(TrainedModel model, Blackhole bh) {
+		long chars = 0;
+		for (String w : model.classifier.getAllWords()) {
+			chars += w.length();
+		}
+		bh.consume(chars);
+	}
+}
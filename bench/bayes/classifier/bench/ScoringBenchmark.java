@@ -0,0 +1,57 @@
+package bayes.classifier.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring throughput for messages of several sizes. The messages are built
+ * from corpus words plus a share of unknown words, so the duplicate and
+ * unknown word paths are exercised as well.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScoringBenchmark {
+	@Param({ "10", "100", "1000", "10000" })
+	int messageWords;
+
+	byte[] message;
+
+	@Setup(Level.Trial)
+	public void buildMessage(TrainedModel model) {
+		Random r = new Random(220);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < messageWords; i++) {
+			if (r.nextInt(10) == 0) {
+				sb.append("unknown").append(r.nextInt());
+			} else {
+				sb.append(model.words.get(r.nextInt(model.words.size())));
+			}
+			sb.append(i % 12 == 11 ? '\n' : ' ');
+		}
+		message = sb.toString().getBytes();
+	}
+
+	@Benchmark
+	public double probSpamForMessage(TrainedModel model) {
+		return model.classifier
+				.probSpamForMessage(new ByteArrayInputStream(message));
+	}
+}
@@ -0,0 +1,45 @@
+package bayes.classifier.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import bayes.classifier.impl.SpamClassifier;
+
+/**
+ * A classifier trained once on the whole corpus and shared by the scoring
+ * benchmarks. Run with -p hashedFeatureBits=18 to compare hashed features.
+ */
+@State(Scope.Benchmark)
+public class TrainedModel {
+	@Param({ "0" })
+	int hashedFeatureBits;
+
+	SpamClassifier classifier;
+	List<String> words;
+
+	@Setup(Level.Trial)
+	public void train() throws IOException {
+		classifier = train(0);
+		words = new ArrayList<>(classifier.getAllWords());
+		if (hashedFeatureBits > 0) {
+			classifier = train(hashedFeatureBits);
+		}
+	}
+
+	private static SpamClassifier train(int hashedFeatureBits)
+			throws IOException {
+		SpamClassifier c = new SpamClassifier();
+		c.setHashedFeatures(hashedFeatureBits);
+		c.setThreshold(0.5);
+		c.addAllSpamFilesInDirectory(Corpus.SPAM);
+		c.addAllHamFilesInDirectory(Corpus.HAM);
+		return c;
+	}
+}
@@ -0,0 +1,88 @@
+package bayes.classifier.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bayes.classifier.impl.SpamClassifier;
+
+/**
+ * Training throughput: single messages fed from memory, and whole corpus
+ * directories read from disk.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TrainingBenchmark {
+	/**
+	 * The training threads of the directory benchmark. Single messages are
+	 * trained on the calling thread, so only the benchmark that takes this
+	 * state is run once per thread count.
+	 */
+	@State(Scope.Benchmark)
+	public static class DirectoryThreads {
+		@Param({ "1", "4" })
+		int trainingThreads;
+	}
+
+	List<byte[]> spam;
+	List<byte[]> ham;
+	SpamClassifier classifier;
+	int next;
+
+	@Setup(Level.Trial)
+	public void readCorpus() throws IOException {
+		spam = Corpus.read(Corpus.SPAM);
+		ham = Corpus.read(Corpus.HAM);
+	}
+
+	@Setup(Level.Iteration)
+	public void newClassifier() {
+		classifier = new SpamClassifier();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void addSpamFile() throws IOException {
+		byte[] m = spam.get(next++ % spam.size());
+		classifier.addSpamFile(new ByteArrayInputStream(m));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void addHamFile() throws IOException {
+		byte[] m = ham.get(next++ % ham.size());
+		classifier.addHamFile(new ByteArrayInputStream(m));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public SpamClassifier addAllFilesInDirectory(DirectoryThreads threads)
+			throws IOException {
+		SpamClassifier c = new SpamClassifier();
+		c.setTrainingThreads(threads.trainingThreads);
+		c.addAllSpamFilesInDirectory(Corpus.SPAM);
+		c.addAllHamFilesInDirectory(Corpus.HAM);
+		return c;
+	}
+}
@@ -0,0 +1,268 @@
+package bayes.classifier.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores many messages with one {@link SpamClassifier} using all cores.
+ * <p>
+ * A dispatcher thread hands the messages out to a pool of workers, and each
+ * worker reads its message into a reused buffer and then tokenizes and scores
+ * it in a single pass, so the files are read by all the workers in parallel
+ * rather than by one thread. The stages are connected by bounded queues: at
+ * most {@link #BatchClassifier(SpamClassifier, int, int) inFlight} messages
+ * are held at a time, so the dispatcher waits when scoring or the consumer
+ * of the results falls behind. Results are delivered on the calling thread
+ * in input order. An exception or error thrown while scoring a message ends
+ * the batch and is rethrown on the calling thread.
+ * <p>
+ * The classifier must not be trained while a batch is running.
+ */
+public class BatchClassifier {
+	/**
+	 * Receives the results of a batch, in input order, on the thread that
+	 * called {@link BatchClassifier#classifyAll(Iterable, Listener)}.
+	 */
+	public interface Listener {
+		/**
+		 * Called with the score of the index-th message.
+		 */
+		void scored(long index, Path message, double score);
+
+		/**
+		 * Called when the index-th message could not be read. By default the
+		 * error ends the batch.
+		 */
+		default void failed(long index, Path message, IOException e)
+				throws IOException {
+			throw e;
+		}
+	}
+
+	/** A message travelling through the pipeline; reused once delivered. */
+	private static final class Job {
+		long index;
+		Path path;
+		byte[] data = new byte[8192];
+		int length;
+		double score;
+		IOException error;
+		Throwable crash;
+		boolean done;
+	}
+
+	private static final Job END = new Job();
+
+	private final SpamClassifier classifier;
+	private final int threads;
+	private final int inFlight;
+
+	/**
+	 * Create a batch classifier with one scoring thread per core.
+	 */
+	public BatchClassifier(SpamClassifier classifier) {
+		this(classifier, Runtime.getRuntime().availableProcessors(),
+				4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param classifier
+	 *            the trained model to score with
+	 * @param threads
+	 *            the number of threads that read and score messages
+	 * @param inFlight
+	 *            the most messages held in memory at once
+	 */
+	public BatchClassifier(SpamClassifier classifier, int threads,
+			int inFlight) {
+		if (threads < 1 || inFlight < threads) {
+			throw new IllegalArgumentException("Need at least one thread and "
+					+ "one buffer per thread: " + threads + ", " + inFlight);
+		}
+		this.classifier = classifier;
+		this.threads = threads;
+		this.inFlight = inFlight;
+	}
+
+	/**
+	 * Score the given messages and return their scores in input order.
+	 */
+	public List<Double> classifyAll(Iterable<Path> messages)
+			throws IOException {
+		final List<Double> scores = new ArrayList<>();
+		classifyAll(messages, new Listener() {
+			@Override
+			public void scored(long index, Path message, double score) {
+				scores.add(score);
+			}
+		});
+		return scores;
+	}
+
+	/**
+	 * Score the given messages, handing each result to the listener in input
+	 * order as soon as it and all the results before it are ready.
+	 */
+	public void classifyAll(Iterable<Path> messages, Listener listener)
+			throws IOException {
+		final BlockingQueue<Job> free = new ArrayBlockingQueue<>(inFlight);
+		final BlockingQueue<Job> toScore = new ArrayBlockingQueue<>(inFlight
+				+ threads);
+		final Job[] window = new Job[inFlight];
+		for (int i = 0; i < inFlight; i++) {
+			free.add(new Job());
+		}
+		final long[] total = { -1 };
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+		try {
+			Future<?> dispatcher = pool.submit(() -> {
+				long index = 0;
+				try {
+					for (Iterator<Path> it = messages.iterator(); it.hasNext();) {
+						Job job = free.take();
+						job.index = index;
+						job.path = it.next();
+						job.done = false;
+						job.crash = null;
+						synchronized (window) {
+							window[(int) (index % inFlight)] = job;
+						}
+						toScore.put(job);
+						index++;
+					}
+				} finally {
+					synchronized (window) {
+						total[0] = index;
+						window.notifyAll();
+					}
+					for (int i = 0; i < threads; i++) {
+						toScore.put(END);
+					}
+				}
+				return null;
+			});
+			for (int i = 0; i < threads; i++) {
+				pool.submit(() -> {
+					for (Job job = toScore.take(); job != END; job = toScore
+							.take()) {
+						try {
+							read(job);
+							if (job.error == null) {
+								job.score = classifier
+										.probSpamForMessage(new ByteArrayInputStream(
+												job.data, 0, job.length));
+							}
+						} catch (Throwable t) {
+							// even an error must mark the job done, or the
+							// consumer would wait for it forever
+							job.crash = t;
+						}
+						synchronized (window) {
+							job.done = true;
+							window.notifyAll();
+						}
+					}
+					return null;
+				});
+			}
+
+			for (long next = 0;; next++) {
+				Job job;
+				synchronized (window) {
+					// a slot is emptied as soon as its job is delivered, so it
+					// can only hold the job with index next
+					int slot = (int) (next % inFlight);
+					while (window[slot] == null ? total[0] != next
+							: !window[slot].done) {
+						window.wait();
+					}
+					job = window[slot];
+					window[slot] = null;
+				}
+				if (job == null) {
+					break;
+				}
+				if (job.crash != null) {
+					throw rethrow(job.crash);
+				} else if (job.error != null) {
+					listener.failed(job.index, job.path, job.error);
+				} else {
+					listener.scored(job.index, job.path, job.score);
+				}
+				job.path = null;
+				free.add(job);
+			}
+			// rethrow whatever stopped the dispatcher early
+			waitFor(dispatcher);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while classifying");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Read the message of the given job into its reused buffer.
+	 */
+	private static void read(Job job) {
+		job.length = 0;
+		job.error = null;
+		try (InputStream in = Files.newInputStream(job.path)) {
+			while (true) {
+				if (job.length == job.data.length) {
+					job.data = Arrays.copyOf(job.data, job.length * 2);
+				}
+				int n = in.read(job.data, job.length, job.data.length
+						- job.length);
+				if (n < 0) {
+					break;
+				}
+				job.length += n;
+			}
+		} catch (IOException e) {
+			job.error = e;
+		}
+	}
+
+	private static void waitFor(Future<?> f) throws IOException,
+			InterruptedException {
+		try {
+			f.get();
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	/**
+	 * Throw the given exception as it is if it is unchecked or an
+	 * IOException, or wrapped in an IOException otherwise.
+	 */
+	private static IOException rethrow(Throwable t) throws IOException {
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t);
+	}
+}
@@ -0,0 +1,350 @@
+package bayes.classifier.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a saved {@link SpamClassifier} over HTTP, so that a mail gateway can
+ * classify messages without embedding the model.
+ * <p>
+ * Connections are accepted and their request headers parsed by the JDK's
+ * HTTP server, which then hands each request to a fixed pool of scoring
+ * threads. The body is streamed straight into the scorer as it arrives, so a
+ * message is never held in memory as a whole, but that read blocks the
+ * scoring thread: a client that sends its body slowly holds a thread for the
+ * whole upload, and as many slow clients as there are threads stall the
+ * server. When clients are not trusted, put it behind a proxy that buffers
+ * request bodies.
+ * <p>
+ * The model file holds only counts and the threshold: a model trained with a
+ * {@link SpamClassifier#setTokenizer(java.util.function.Supplier) custom
+ * tokenizer} is served with the default {@link WhitespaceTokenizer}, and
+ * scoring limits are set on the server rather than saved with the model. The
+ * endpoints are:
+ * <dl>
+ * <dt>POST /classify</dt>
+ * <dd>scores the body as one message and answers
+ * <code>{"score":0.93,"spam":true}</code>; a score that underflowed to NaN is
+ * null and never spam. A message that hit one of the
+ * {@link #setScoringLimits(ScoringLimits) scoring limits} gets
+ * <code>"truncated":true</code> as well</dd>
+ * <dt>POST /batch</dt>
+ * <dd>scores several messages sent in one request, each preceded by its length
+ * in bytes as a decimal number on a line of its own, and answers one such
+ * line per message as soon as it is scored</dd>
+ * <dt>POST /reload</dt>
+ * <dd>loads the model file again, for example after a retrained model was
+ * saved over it, and swaps it in without dropping requests; requests being
+ * scored finish with the old model</dd>
+ * </dl>
+ * Use {@link LoadGenerator} to measure the latency of a running server.
+ */
+public class ClassificationServer implements Closeable {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Path modelFile;
+	private final HttpServer server;
+	private final ExecutorService pool;
+	private volatile SpamClassifier model;
+	private volatile ScoringLimits limits = ScoringLimits.NONE;
+
+	/**
+	 * Load the model and bind the server to the given address. Call
+	 * {@link #start()} to start serving.
+	 *
+	 * @param modelFile
+	 *            a model written by {@link SpamClassifier#save(Path)}, scored
+	 *            with the default tokenizer
+	 * @param address
+	 *            the address to listen on; port 0 picks a free port
+	 * @param threads
+	 *            the number of scoring threads
+	 */
+	public ClassificationServer(Path modelFile, InetSocketAddress address,
+			int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Need at least one scoring thread: " + threads);
+		}
+		this.modelFile = modelFile;
+		this.model = SpamClassifier.load(modelFile);
+		this.server = HttpServer.create(address, 0);
+		this.pool = Executors.newFixedThreadPool(threads);
+		this.server.setExecutor(this.pool);
+		this.server.createContext("/classify", post(this::classify));
+		this.server.createContext("/batch", post(this::batch));
+		this.server.createContext("/reload", post(this::reload));
+	}
+
+	/**
+	 * Start accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * The port the server listens on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * The model requests are scored with.
+	 */
+	public SpamClassifier model() {
+		return model;
+	}
+
+	/**
+	 * Limit the part of each message that is scored, so that a huge or
+	 * hostile message cannot hold a scoring thread for long. The limits are
+	 * applied to each request rather than set on the model, which is never
+	 * changed once loaded, so they hold for every model the server reloads
+	 * and take effect for requests that start after this returns.
+	 */
+	public void setScoringLimits(ScoringLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("Scoring limits must not be null");
+		}
+		this.limits = limits;
+	}
+
+	/**
+	 * Load the model file again and score new requests with it. If the file
+	 * cannot be read the current model is kept.
+	 */
+	public void reload() throws IOException {
+		this.model = SpamClassifier.load(modelFile);
+	}
+
+	/**
+	 * Stop accepting requests, let those being scored finish, and stop the
+	 * scoring threads.
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		pool.shutdown();
+	}
+
+	private void classify(HttpExchange exchange) throws IOException {
+		ScoreResult result;
+		try (InputStream in = exchange.getRequestBody()) {
+			result = this.model.scoreMessage(in, this.limits);
+		}
+		byte[] body = verdict(result).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void batch(HttpExchange exchange) throws IOException {
+		// one model and one set of limits for the whole batch, even if they
+		// are changed meanwhile
+		SpamClassifier model = this.model;
+		ScoringLimits limits = this.limits;
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/x-ndjson");
+		exchange.sendResponseHeaders(200, 0);
+		try (InputStream in = new BufferedInputStream(
+				exchange.getRequestBody());
+				OutputStream out = exchange.getResponseBody()) {
+			try {
+				for (long length = readLength(in); length >= 0; length = readLength(in)) {
+					BoundedInputStream message = new BoundedInputStream(in,
+							length);
+					ScoreResult result = model.scoreMessage(message, limits);
+					message.skipRest();
+					out.write(verdict(result).getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				}
+			} catch (NumberFormatException e) {
+				// the status is already sent, so report the error in the body
+				out.write("{\"error\":\"bad message length\"}\n"
+						.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private void reload(HttpExchange exchange) throws IOException {
+		exchange.getRequestBody().close();
+		try {
+			reload();
+		} catch (IOException e) {
+			send(exchange, 500, e.getMessage());
+			return;
+		}
+		send(exchange, 200, "reloaded " + modelFile);
+	}
+
+	private static String verdict(ScoreResult result) {
+		double score = result.getScore();
+		return "{\"score\":" + (Double.isNaN(score) ? "null" : score)
+				+ ",\"spam\":" + result.isSpam()
+				+ (result.isTruncated() ? ",\"truncated\":true" : "") + "}\n";
+	}
+
+	/**
+	 * Read the decimal length line that precedes each message of a batch.
+	 *
+	 * @return the length, or -1 at the end of the batch
+	 */
+	private static long readLength(InputStream in) throws IOException {
+		StringBuilder digits = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') {
+			if (c != '\r') {
+				digits.append((char) c);
+			}
+		}
+		if (c < 0 && digits.length() == 0) {
+			return -1;
+		}
+		long length = Long.parseLong(digits.toString().trim());
+		if (length < 0) {
+			throw new NumberFormatException("Negative length: " + length);
+		}
+		return length;
+	}
+
+	private static void send(HttpExchange exchange, int status, String text)
+			throws IOException {
+		byte[] body = text == null ? EMPTY : (text + "\n")
+				.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1
+				: body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Only let POST requests through to the handler.
+	 */
+	private static HttpHandler post(HttpHandler handler) {
+		return exchange -> {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					send(exchange, 405, "Use POST");
+					return;
+				}
+				handler.handle(exchange);
+			} finally {
+				exchange.close();
+			}
+		};
+	}
+
+	/**
+	 * One message of a batch: the next length bytes of the request body.
+	 */
+	private static final class BoundedInputStream extends FilterInputStream {
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int c = in.read();
+			if (c >= 0) {
+				remaining--;
+			}
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		/**
+		 * Skip what the scorer did not read, such as after an early exit.
+		 */
+		void skipRest() throws IOException {
+			while (remaining > 0) {
+				if (skip(remaining) == 0) {
+					if (read() < 0) {
+						throw new IOException("Batch ended inside a message");
+					}
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			// the request body stays open for the next message
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/**
+	 * Serve a saved model on the loopback interface until the process is
+	 * killed.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("Usage: ClassificationServer model [port [threads]]");
+			System.exit(2);
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8025;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		ClassificationServer server = new ClassificationServer(
+				Paths.get(args[0]), new InetSocketAddress(
+						InetAddress.getLoopbackAddress(), port), threads);
+		server.start();
+		System.out.println("Serving " + args[0] + " on port "
+				+ server.getPort());
+	}
+}
@@ -0,0 +1,206 @@
+package bayes.classifier.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * What a {@link SpamClassifier} has been doing: how many messages it scored
+ * and trained on, how many tokens they had and how many of those it did not
+ * know, and how long scoring and training took.
+ * <p>
+ * Counters are {@link LongAdder}s and latencies go into {@link Histogram}s,
+ * so recording from many scoring threads does not contend on one cache line.
+ * A classifier without metrics skips all of this after a single null check.
+ * Copies of a classifier, such as the models published by a
+ * {@link ConcurrentSpamClassifier}, record into the same metrics.
+ */
+public class ClassifierMetrics implements ClassifierMetricsMBean {
+	private final LongAdder messagesScored = new LongAdder();
+	private final LongAdder messagesTrained = new LongAdder();
+	private final LongAdder tokensScored = new LongAdder();
+	private final LongAdder unknownTokens = new LongAdder();
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder unknownLookups = new LongAdder();
+	private final Histogram tokensPerMessage = new Histogram();
+	private final Histogram scoreLatency = new Histogram();
+	private final Histogram trainLatency = new Histogram();
+	private final SpamClassifier model;
+	private ObjectName name;
+
+	/**
+	 * @param model
+	 *            the classifier whose vocabulary size is reported
+	 */
+	ClassifierMetrics(SpamClassifier model) {
+		this.model = model;
+	}
+
+	void scored(int tokens, int unknown, long nanos) {
+		messagesScored.increment();
+		tokensScored.add(tokens);
+		unknownTokens.add(unknown);
+		tokensPerMessage.record(tokens);
+		scoreLatency.record(nanos);
+	}
+
+	void trained(long nanos) {
+		messagesTrained.increment();
+		trainLatency.record(nanos);
+	}
+
+	void lookedUp(boolean known) {
+		lookups.increment();
+		if (!known) {
+			unknownLookups.increment();
+		}
+	}
+
+	/**
+	 * The histogram of scoring latencies in nanoseconds.
+	 */
+	public Histogram getScoreLatency() {
+		return scoreLatency;
+	}
+
+	/**
+	 * The histogram of training latencies per message in nanoseconds.
+	 */
+	public Histogram getTrainLatency() {
+		return trainLatency;
+	}
+
+	/**
+	 * The histogram of the number of tokens in each scored message.
+	 */
+	public Histogram getTokensPerMessage() {
+		return tokensPerMessage;
+	}
+
+	@Override
+	public long getMessagesScored() {
+		return messagesScored.sum();
+	}
+
+	@Override
+	public long getMessagesTrained() {
+		return messagesTrained.sum();
+	}
+
+	@Override
+	public long getTokensScored() {
+		return tokensScored.sum();
+	}
+
+	@Override
+	public long getUnknownTokens() {
+		return unknownTokens.sum() + unknownLookups.sum();
+	}
+
+	@Override
+	public double getUnknownTokenRatio() {
+		long total = tokensScored.sum() + lookups.sum();
+		return total == 0 ? 0 : (double) getUnknownTokens() / total;
+	}
+
+	@Override
+	public double getMeanTokensPerMessage() {
+		long messages = messagesScored.sum();
+		return messages == 0 ? 0 : (double) tokensScored.sum() / messages;
+	}
+
+	@Override
+	public long getMaxTokensPerMessage() {
+		return tokensPerMessage.getMax();
+	}
+
+	@Override
+	public long getScoreLatencyP50Micros() {
+		return scoreLatency.getValueAtQuantile(0.5) / 1000;
+	}
+
+	@Override
+	public long getScoreLatencyP99Micros() {
+		return scoreLatency.getValueAtQuantile(0.99) / 1000;
+	}
+
+	@Override
+	public long getScoreLatencyP999Micros() {
+		return scoreLatency.getValueAtQuantile(0.999) / 1000;
+	}
+
+	@Override
+	public long getScoreLatencyMaxMicros() {
+		return scoreLatency.getMax() / 1000;
+	}
+
+	@Override
+	public long getTrainLatencyP50Micros() {
+		return trainLatency.getValueAtQuantile(0.5) / 1000;
+	}
+
+	@Override
+	public long getTrainLatencyP99Micros() {
+		return trainLatency.getValueAtQuantile(0.99) / 1000;
+	}
+
+	@Override
+	public long getTrainLatencyMaxMicros() {
+		return trainLatency.getMax() / 1000;
+	}
+
+	@Override
+	public int getVocabularySize() {
+		return model.features().size();
+	}
+
+	@Override
+	public long getEstimatedModelBytes() {
+		return model.features().sizeInBytes();
+	}
+
+	@Override
+	public void reset() {
+		messagesScored.reset();
+		messagesTrained.reset();
+		tokensScored.reset();
+		unknownTokens.reset();
+		lookups.reset();
+		unknownLookups.reset();
+		tokensPerMessage.reset();
+		scoreLatency.reset();
+		trainLatency.reset();
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server as
+	 * bayes.classifier:type=SpamClassifier,name=the given name.
+	 * 
+	 * @return the name they were registered under
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"bayes.classifier:type=SpamClassifier,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		this.name = objectName;
+		return objectName;
+	}
+
+	/**
+	 * Remove these metrics from the platform MBean server, if registered.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (name != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			name = null;
+		}
+	}
+}
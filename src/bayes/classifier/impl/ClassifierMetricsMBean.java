@@ -0,0 +1,53 @@
+package bayes.classifier.impl;
+
+/**
+ * The JMX view of {@link ClassifierMetrics}. Latencies are in microseconds.
+ */
+public interface ClassifierMetricsMBean {
+	long getMessagesScored();
+
+	long getMessagesTrained();
+
+	long getTokensScored();
+
+	long getUnknownTokens();
+
+	/**
+	 * The share of scored tokens and single word lookups that were not in the
+	 * model.
+	 */
+	double getUnknownTokenRatio();
+
+	double getMeanTokensPerMessage();
+
+	long getMaxTokensPerMessage();
+
+	long getScoreLatencyP50Micros();
+
+	long getScoreLatencyP99Micros();
+
+	long getScoreLatencyP999Micros();
+
+	long getScoreLatencyMaxMicros();
+
+	long getTrainLatencyP50Micros();
+
+	long getTrainLatencyP99Micros();
+
+	long getTrainLatencyMaxMicros();
+
+	/**
+	 * The number of distinct words, or of buckets with hashed features.
+	 */
+	int getVocabularySize();
+
+	/**
+	 * An estimate of the heap taken by the word counts, in bytes.
+	 */
+	long getEstimatedModelBytes();
+
+	/**
+	 * Set every counter and histogram back to zero.
+	 */
+	void reset();
+}
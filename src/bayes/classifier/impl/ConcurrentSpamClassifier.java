@@ -0,0 +1,414 @@
+package bayes.classifier.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link SpamClassifier} that can keep learning while other threads score
+ * messages with it.
+ * <p>
+ * Scoring never takes a lock: it reads the current published model, an
+ * immutable {@link SpamClassifier} held in a volatile field. Training reads
+ * and tokenizes each message into a private model first, so slow streams do
+ * not hold up other trainers, and then adds those counts to a working model
+ * under a lock. A model that hashes its features counts the message straight
+ * into the working model under the lock instead, once it has been read into
+ * memory. Every {@link #setPublishInterval(int) hundred} training messages,
+ * or once the oldest unpublished one is {@link #setPublishDelay(long) a
+ * second} old, the working model is copied and the copy replaces the
+ * published one, so readers always see a model as it was between two
+ * training messages and never a half-applied one. Publishing copies the whole
+ * model, so it is batched rather than done for every message; call
+ * {@link #publish()} to make the latest training visible at once. Training
+ * that stops short of a batch is published by a timer thread shared by all
+ * instances once it is due, so scoring never has to check the time.
+ */
+public class ConcurrentSpamClassifier {
+	/** Publishes training that has waited out its delay. */
+	private static final ScheduledExecutorService PUBLISHER = Executors
+			.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "spam-classifier-publisher");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final Object lock = new Object();
+	private final SpamClassifier working;
+	private volatile SpamClassifier published;
+	private int publishInterval = 100;
+	private long publishDelayNanos = TimeUnit.SECONDS.toNanos(1);
+	private int unpublished;
+	/** When the oldest unpublished change was made, in ns. */
+	private long unpublishedSince;
+	private boolean publishScheduled;
+
+	/**
+	 * Create an empty classifier.
+	 */
+	public ConcurrentSpamClassifier() {
+		this(new SpamClassifier());
+	}
+
+	/**
+	 * Create a classifier that starts from a copy of the given model.
+	 *
+	 * @param model
+	 *            the initial model, which is not modified
+	 */
+	public ConcurrentSpamClassifier(SpamClassifier model) {
+		this.working = model.copy();
+		this.published = model.copy();
+	}
+
+	/**
+	 * Add the spam message read from the given stream to the model, counting
+	 * it as one more spam message.
+	 *
+	 * @param in
+	 *            The inputstream from which to read the spam message.
+	 */
+	public void addSpamFile(InputStream in) throws IOException {
+		SpamClassifier message = newMessageModel();
+		if (message == null) {
+			byte[] bytes = readFully(in);
+			synchronized (lock) {
+				working.addSpamFile(new ByteArrayInputStream(bytes));
+				changedLocked(1);
+			}
+			return;
+		}
+		message.addSpamFile(in);
+		train(message, 1);
+	}
+
+	/**
+	 * Add the ham message read from the given stream to the model, counting it
+	 * as one more ham message.
+	 *
+	 * @param in
+	 *            The inputstream from which to read the ham message.
+	 */
+	public void addHamFile(InputStream in) throws IOException {
+		SpamClassifier message = newMessageModel();
+		if (message == null) {
+			byte[] bytes = readFully(in);
+			synchronized (lock) {
+				working.addHamFile(new ByteArrayInputStream(bytes));
+				changedLocked(1);
+			}
+			return;
+		}
+		message.addHamFile(in);
+		train(message, 1);
+	}
+
+	/**
+	 * Take a spam message out of the model again. The message is read into
+	 * memory first and then untrained under the lock.
+	 * 
+	 * @see SpamClassifier#removeSpamFile(InputStream)
+	 */
+	public void removeSpamFile(InputStream in) throws IOException {
+		byte[] message = readFully(in);
+		synchronized (lock) {
+			working.removeSpamFile(new ByteArrayInputStream(message));
+			changedLocked(1);
+		}
+	}
+
+	/**
+	 * Take a ham message out of the model again, like
+	 * {@link #removeSpamFile(InputStream)}.
+	 */
+	public void removeHamFile(InputStream in) throws IOException {
+		byte[] message = readFully(in);
+		synchronized (lock) {
+			working.removeHamFile(new ByteArrayInputStream(message));
+			changedLocked(1);
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private void changedLocked(int weight) {
+		long now = System.nanoTime();
+		if (unpublished == 0) {
+			unpublishedSince = now;
+		}
+		unpublished = (int) Math.min(Integer.MAX_VALUE, (long) unpublished
+				+ weight);
+		if (unpublished >= publishInterval
+				|| now - unpublishedSince >= publishDelayNanos) {
+			publishLocked();
+		} else if (!publishScheduled) {
+			schedulePublishLocked(unpublishedSince + publishDelayNanos - now);
+		}
+	}
+
+	private void schedulePublishLocked(long delayNanos) {
+		publishScheduled = true;
+		PUBLISHER.schedule(this::publishIfDue, delayNanos,
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Publish the training that has waited out the delay, or check again
+	 * when it will have, if a publish since has restarted the wait.
+	 */
+	private void publishIfDue() {
+		synchronized (lock) {
+			publishScheduled = false;
+			if (unpublished == 0) {
+				return;
+			}
+			long wait = unpublishedSince + publishDelayNanos - System.nanoTime();
+			if (wait <= 0) {
+				publishLocked();
+			} else {
+				schedulePublishLocked(wait);
+			}
+		}
+	}
+
+	/**
+	 * Add all the files in the given directory to the model as spam and
+	 * publish the result.
+	 *
+	 * @param dir
+	 *            The directory from which to read the files
+	 */
+	public void addAllSpamFilesInDirectory(File dir) throws IOException {
+		SpamClassifier messages = newDirectoryModel();
+		messages.addAllSpamFilesInDirectory(dir);
+		train(messages, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Add all the files in the given directory to the model as ham and
+	 * publish the result.
+	 *
+	 * @param dir
+	 *            The directory from which to read the files
+	 */
+	public void addAllHamFilesInDirectory(File dir) throws IOException {
+		SpamClassifier messages = newDirectoryModel();
+		messages.addAllHamFilesInDirectory(dir);
+		train(messages, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * An empty model of the same kind and with the settings of the working
+	 * model, used to tokenize a training message outside the lock, or null if
+	 * the working model hashes its features: an empty hashed table is as
+	 * large as the whole model, so such messages are counted under the lock.
+	 */
+	private SpamClassifier newMessageModel() {
+		synchronized (lock) {
+			if (working.getHashedFeatureBits() != 0) {
+				return null;
+			}
+			return newModelLocked();
+		}
+	}
+
+	/**
+	 * An empty model of the same kind and with the settings of the working
+	 * model, used to read a directory outside the lock.
+	 */
+	private SpamClassifier newDirectoryModel() {
+		synchronized (lock) {
+			return newModelLocked();
+		}
+	}
+
+	private SpamClassifier newModelLocked() {
+		SpamClassifier c = new SpamClassifier();
+		c.copySettings(working);
+		c.setCounts(working.features().empty(), 0, 0);
+		return c;
+	}
+
+	private void train(SpamClassifier messages, int weight) {
+		synchronized (lock) {
+			working.addAll(messages);
+			changedLocked(weight);
+		}
+	}
+
+	/**
+	 * Make everything trained so far visible to scoring threads.
+	 */
+	public void publish() {
+		synchronized (lock) {
+			publishLocked();
+		}
+	}
+
+	private void publishLocked() {
+		published = working.copy();
+		unpublished = 0;
+	}
+
+	/**
+	 * Set how many training messages are batched before the model is
+	 * republished. Publishing copies the whole model, so with a large
+	 * vocabulary and a high training rate a larger interval trades freshness
+	 * for less copying.
+	 *
+	 * @param messages
+	 *            the number of training messages per publish, 100 by default;
+	 *            1 publishes after every message
+	 */
+	public void setPublishInterval(int messages) {
+		if (messages < 1) {
+			throw new IllegalArgumentException(
+					"Publish interval must be positive: " + messages);
+		}
+		synchronized (lock) {
+			this.publishInterval = messages;
+		}
+	}
+
+	/**
+	 * Set how long training may stay unpublished: once the oldest unpublished
+	 * training message is this old the model is published, even if the
+	 * publish interval has not been reached yet and no more training comes.
+	 *
+	 * @param millis
+	 *            the longest delay, 1000 by default; 0 publishes after every
+	 *            message
+	 */
+	public void setPublishDelay(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException(
+					"Publish delay must not be negative: " + millis);
+		}
+		synchronized (lock) {
+			this.publishDelayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+			if (unpublished > 0) {
+				// a shorter delay may be due before the scheduled check
+				schedulePublishLocked(unpublishedSince + publishDelayNanos
+						- System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * Let the counts of the working model age out, and publish.
+	 * 
+	 * @see SpamClassifier#setDecayWindow(int, long)
+	 */
+	public void setDecayWindow(int epochs, long epochMillis) {
+		synchronized (lock) {
+			working.setDecayWindow(epochs, epochMillis);
+			publishLocked();
+		}
+	}
+
+	/**
+	 * Start a new decay epoch, expiring the oldest one, and publish.
+	 * 
+	 * @see SpamClassifier#advanceEpoch()
+	 */
+	public void advanceEpoch() {
+		synchronized (lock) {
+			working.advanceEpoch();
+			publishLocked();
+		}
+	}
+
+	/**
+	 * Start recording metrics for training and scoring, or return the metrics
+	 * already being recorded. The vocabulary size they report is that of the
+	 * working model.
+	 */
+	public ClassifierMetrics enableMetrics() {
+		synchronized (lock) {
+			ClassifierMetrics metrics = working.enableMetrics();
+			publishLocked();
+			return metrics;
+		}
+	}
+
+	/**
+	 * The model that scoring currently uses. It must only be read: training
+	 * it directly would race with scoring threads.
+	 */
+	public SpamClassifier snapshot() {
+		return published;
+	}
+
+	/**
+	 * Set the threshold at which we classify a message as spam, and publish.
+	 *
+	 * @param t
+	 *            the threshold
+	 */
+	public void setThreshold(double t) {
+		synchronized (lock) {
+			working.setThreshold(t);
+			publishLocked();
+		}
+	}
+
+	/**
+	 * Get the threshold at which we classify a message as spam.
+	 */
+	public double getThreshold() {
+		return published.getThreshold();
+	}
+
+	/**
+	 * Set the limits on the part of each message that is scored, and publish.
+	 *
+	 * @see SpamClassifier#setScoringLimits(ScoringLimits)
+	 */
+	public void setScoringLimits(ScoringLimits limits) {
+		synchronized (lock) {
+			working.setScoringLimits(limits);
+			publishLocked();
+		}
+	}
+
+	/**
+	 * Score a message against the published model without locking.
+	 *
+	 * @see SpamClassifier#probSpamForMessage(InputStream)
+	 */
+	public double probSpamForMessage(InputStream in) {
+		return published.probSpamForMessage(in);
+	}
+
+	/**
+	 * Score a message against the published model without locking, and
+	 * report whether it hit a scoring limit.
+	 *
+	 * @see SpamClassifier#scoreMessage(InputStream)
+	 */
+	public ScoreResult scoreMessage(InputStream in) {
+		return published.scoreMessage(in);
+	}
+
+	/**
+	 * Classify a message against the published model without locking.
+	 *
+	 * @see SpamClassifier#isSpam(InputStream)
+	 */
+	public boolean isSpam(InputStream in) {
+		return published.isSpam(in);
+	}
+}
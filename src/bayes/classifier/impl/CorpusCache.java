@@ -0,0 +1,267 @@
+package bayes.classifier.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The file format of a tokenized directory, so that training on a directory
+ * that has not changed replays its tokens instead of reading and tokenizing
+ * every file again.
+ * <p>
+ * The cache starts with a manifest of the files it was built from, their
+ * names, sizes and modification times, and is only used while the directory
+ * still matches it. Every message is stored once as the set of dictionary
+ * ids of its distinct words, sorted and delta-encoded. All numbers after the
+ * header are unsigned LEB128 varints, and strings are a varint UTF-8 length
+ * followed by the bytes:
+ *
+ * <pre>
+ * int      magic "SPMC"
+ * int      version
+ * string   the directory and how it was listed
+ * string   the cache identity of the tokenizer
+ * varint   number of files n
+ * n times  string file name, varint size, varint modification time in ms
+ * varint   number of words w
+ * w times  string word
+ * n times  varint number of ids k, then k varints: the first id and the
+ *          gaps between the next ones
+ * </pre>
+ */
+final class CorpusCache {
+	static final int MAGIC = 0x53504D43;
+	static final int VERSION = 1;
+
+	/** The files of a directory as they were when it was tokenized. */
+	static final class Manifest {
+		final String key;
+		final String[] names;
+		final long[] sizes;
+		final long[] modified;
+
+		Manifest(String key, String[] names, long[] sizes, long[] modified) {
+			this.key = key;
+			this.names = names;
+			this.sizes = sizes;
+			this.modified = modified;
+		}
+
+		/**
+		 * The manifest of the given files of a directory.
+		 *
+		 * @param key
+		 *            identifies the directory and how its files were listed
+		 */
+		static Manifest of(String key, Path dir, List<Path> files)
+				throws IOException {
+			int n = files.size();
+			String[] names = new String[n];
+			long[] sizes = new long[n];
+			long[] modified = new long[n];
+			for (int i = 0; i < n; i++) {
+				Path f = files.get(i);
+				BasicFileAttributes attributes = Files.readAttributes(f,
+						BasicFileAttributes.class);
+				names[i] = dir.relativize(f).toString();
+				sizes[i] = attributes.size();
+				modified[i] = attributes.lastModifiedTime().toMillis();
+			}
+			return new Manifest(key, names, sizes, modified);
+		}
+
+		boolean matches(Manifest other) {
+			return key.equals(other.key) && Arrays.equals(names, other.names)
+					&& Arrays.equals(sizes, other.sizes)
+					&& Arrays.equals(modified, other.modified);
+		}
+	}
+
+	private CorpusCache() {
+	}
+
+	/**
+	 * Write the tokenized messages of a directory, in the order of its
+	 * manifest, to the given file. The data goes to a temporary file that
+	 * then replaces the target, so readers never see a partial cache.
+	 */
+	static void write(Path path, Manifest manifest, String tokenizer,
+			TokenizedCorpus corpus) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(
+				Files.newOutputStream(tmp), 1 << 16)) {
+			writeInt(out, MAGIC);
+			writeInt(out, VERSION);
+			writeString(out, manifest.key);
+			writeString(out, tokenizer);
+			writeVarint(out, manifest.names.length);
+			for (int i = 0; i < manifest.names.length; i++) {
+				writeString(out, manifest.names[i]);
+				writeVarint(out, manifest.sizes[i]);
+				writeVarint(out, manifest.modified[i]);
+			}
+			Vocabulary dictionary = corpus.dictionary;
+			writeVarint(out, dictionary.size());
+			for (int id = 0; id < dictionary.size(); id++) {
+				writeString(out, dictionary.word(id));
+			}
+			for (int i = 0; i < corpus.size(); i++) {
+				int[] ids = corpus.document(i).clone();
+				Arrays.sort(ids);
+				writeVarint(out, ids.length);
+				int previous = 0;
+				for (int id : ids) {
+					writeVarint(out, id - previous);
+					previous = id;
+				}
+			}
+		}
+		try {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Read the tokenized messages from the given file, labelled as spam or
+	 * ham, if it was built from files matching the given manifest with the
+	 * given tokenizer.
+	 *
+	 * @return the messages, or null if there is no cache or it is stale
+	 */
+	static TokenizedCorpus read(Path path, Manifest manifest,
+			String tokenizer, boolean spam) throws IOException {
+		byte[] data;
+		try {
+			data = Files.readAllBytes(path);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			Reader in = new Reader(data);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			String key = in.readString();
+			if (!key.equals(manifest.key) || !in.readString().equals(tokenizer)) {
+				return null;
+			}
+			int n = in.readLength();
+			String[] names = new String[n];
+			long[] sizes = new long[n];
+			long[] modified = new long[n];
+			for (int i = 0; i < n; i++) {
+				names[i] = in.readString();
+				sizes[i] = in.readVarint();
+				modified[i] = in.readVarint();
+			}
+			if (!manifest.matches(new Manifest(key, names, sizes, modified))) {
+				return null;
+			}
+			TokenizedCorpus corpus = new TokenizedCorpus();
+			int words = in.readLength();
+			for (int id = 0; id < words; id++) {
+				corpus.dictionary.add(in.readString());
+			}
+			for (int i = 0; i < n; i++) {
+				int[] ids = new int[in.readLength()];
+				int id = 0;
+				for (int j = 0; j < ids.length; j++) {
+					id += (int) in.readVarint();
+					if (id >= words) {
+						throw new IOException("Word id out of range");
+					}
+					ids[j] = id;
+				}
+				corpus.addDocument(ids, spam);
+			}
+			return corpus;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt corpus cache: " + path, e);
+		}
+	}
+
+	private static void writeInt(OutputStream out, int v) throws IOException {
+		out.write(v >>> 24);
+		out.write(v >>> 16);
+		out.write(v >>> 8);
+		out.write(v);
+	}
+
+	private static void writeVarint(OutputStream out, long v)
+			throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static void writeString(OutputStream out, String s)
+			throws IOException {
+		byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, utf8.length);
+		out.write(utf8);
+	}
+
+	/**
+	 * Decodes a cache held in memory. Reading past the end throws
+	 * {@link ArrayIndexOutOfBoundsException}.
+	 */
+	private static final class Reader {
+		private final byte[] data;
+		private int pos;
+
+		Reader(byte[] data) {
+			this.data = data;
+		}
+
+		int readInt() {
+			int v = (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16
+					| (data[pos + 2] & 0xFF) << 8 | data[pos + 3] & 0xFF;
+			pos += 4;
+			return v;
+		}
+
+		long readVarint() {
+			long v = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = data[pos++];
+				v |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return v;
+				}
+			}
+		}
+
+		/**
+		 * A varint that counts something stored after it, so it cannot be
+		 * larger than the bytes left.
+		 */
+		int readLength() throws IOException {
+			long n = readVarint();
+			if (n > data.length - pos) {
+				throw new IOException("Truncated corpus cache");
+			}
+			return (int) n;
+		}
+
+		String readString() throws IOException {
+			int n = readLength();
+			String s = new String(data, pos, n, StandardCharsets.UTF_8);
+			pos += n;
+			return s;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package bayes.classifier.impl;
+
+/**
+ * A count-min sketch: approximate counts of any number of words in a fixed
+ * amount of memory.
+ * <p>
+ * Each word is hashed to one counter in each of depth rows of width
+ * counters, and its estimate is the smallest of those counters. Counters are
+ * shared between words, so an estimate is never below the true count and,
+ * with probability 1 - delta, exceeds it by at most epsilon times the total
+ * of all counts added. Words are keyed by their {@link String#hashCode()}, so
+ * two words with the same String hash always share their counters.
+ */
+final class CountMinSketch {
+	private final int width;
+	private final int depth;
+	private final int[] counters;
+	private long total;
+
+	/**
+	 * @param epsilon
+	 *            the largest overestimate as a fraction of the total count
+	 * @param delta
+	 *            the probability of exceeding that bound
+	 */
+	CountMinSketch(double epsilon, double delta) {
+		if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+			throw new IllegalArgumentException("Error bounds must be between "
+					+ "0 and 1: " + epsilon + ", " + delta);
+		}
+		this.width = (int) Math.ceil(Math.E / epsilon);
+		this.depth = (int) Math.ceil(Math.log(1 / delta));
+		this.counters = new int[this.width * this.depth];
+	}
+
+	private CountMinSketch(CountMinSketch other) {
+		this.width = other.width;
+		this.depth = other.depth;
+		this.counters = other.counters.clone();
+		this.total = other.total;
+	}
+
+	CountMinSketch copy() {
+		return new CountMinSketch(this);
+	}
+
+	/**
+	 * The counter of the word with the given hash in the given row.
+	 */
+	private int index(int hash, int row) {
+		long h = (hash & 0xffffffffL) * 0x9e3779b97f4a7c15L + row
+				* 0xc2b2ae3d27d4eb4fL;
+		h ^= h >>> 31;
+		h *= 0xbf58476d1ce4e5b9L;
+		h ^= h >>> 29;
+		return row * width + (int) ((h >>> 1) % width);
+	}
+
+	void add(int hash, int n) {
+		for (int row = 0; row < depth; row++) {
+			counters[index(hash, row)] += n;
+		}
+		total += n;
+	}
+
+	int estimate(int hash) {
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			min = Math.min(min, counters[index(hash, row)]);
+		}
+		return min;
+	}
+
+	/**
+	 * The sum of all counts added.
+	 */
+	long total() {
+		return total;
+	}
+
+	/**
+	 * The size of the counter table in bytes.
+	 */
+	long sizeInBytes() {
+		return 4L * counters.length;
+	}
+}
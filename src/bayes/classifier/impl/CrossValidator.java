@@ -0,0 +1,485 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates how well the settings of a {@link SpamClassifier} classify a
+ * labelled corpus with k-fold cross-validation: every message is scored once
+ * by a model trained on the other folds.
+ * <p>
+ * The corpus is read and tokenized only once, into a {@link TokenizedCorpus}.
+ * Since every word is counted once per message, the counts of training on all
+ * folds but one are the counts of the whole corpus minus those of the
+ * held-out fold, so no fold retrains from the messages. The folds then train
+ * and score in parallel. Folds are stratified: each holds its share of the
+ * spam and of the ham, picked at random with a fixed {@link #setSeed(long)
+ * seed} so that runs are repeatable.
+ * <p>
+ * The models are built from whole counts, so settings that only act while
+ * streaming, like early exit, do not change the results, and
+ * {@link SpamClassifier#setMaxWords(int) maxWords} is applied once to each
+ * fold's counts. Models with {@link SpamClassifier#setHashedFeatures(int)
+ * hashed features} are not supported.
+ */
+public class CrossValidator {
+	/** The results of scoring one held-out fold. */
+	public static final class FoldResult {
+		private final int fold;
+		private final int truePositives;
+		private final int falsePositives;
+		private final int trueNegatives;
+		private final int falseNegatives;
+		private final long trainNanos;
+		private final long scoreNanos;
+
+		FoldResult(int fold, int truePositives, int falsePositives,
+				int trueNegatives, int falseNegatives, long trainNanos,
+				long scoreNanos) {
+			this.fold = fold;
+			this.truePositives = truePositives;
+			this.falsePositives = falsePositives;
+			this.trueNegatives = trueNegatives;
+			this.falseNegatives = falseNegatives;
+			this.trainNanos = trainNanos;
+			this.scoreNanos = scoreNanos;
+		}
+
+		/**
+		 * The number of the fold, from 0, or -1 for the sum of all folds.
+		 */
+		public int getFold() {
+			return fold;
+		}
+
+		/**
+		 * The number of spam messages classified as spam.
+		 */
+		public int getTruePositives() {
+			return truePositives;
+		}
+
+		/**
+		 * The number of ham messages classified as spam.
+		 */
+		public int getFalsePositives() {
+			return falsePositives;
+		}
+
+		/**
+		 * The number of ham messages classified as ham.
+		 */
+		public int getTrueNegatives() {
+			return trueNegatives;
+		}
+
+		/**
+		 * The number of spam messages classified as ham.
+		 */
+		public int getFalseNegatives() {
+			return falseNegatives;
+		}
+
+		/**
+		 * The number of held-out messages.
+		 */
+		public int getMessages() {
+			return truePositives + falsePositives + trueNegatives
+					+ falseNegatives;
+		}
+
+		/**
+		 * The share of held-out messages classified correctly.
+		 */
+		public double getAccuracy() {
+			int n = getMessages();
+			return n == 0 ? 0 : (double) (truePositives + trueNegatives) / n;
+		}
+
+		/**
+		 * The share of messages classified as spam that are spam, or 1 if no
+		 * message is.
+		 */
+		public double getPrecision() {
+			int positives = truePositives + falsePositives;
+			return positives == 0 ? 1 : (double) truePositives / positives;
+		}
+
+		/**
+		 * The share of spam classified as spam.
+		 */
+		public double getRecall() {
+			int spam = truePositives + falseNegatives;
+			return spam == 0 ? 0 : (double) truePositives / spam;
+		}
+
+		/**
+		 * The time taken to build the model of the fold from the counts.
+		 */
+		public long getTrainNanos() {
+			return trainNanos;
+		}
+
+		/**
+		 * The time taken to score the held-out messages from their tokens.
+		 */
+		public long getScoreNanos() {
+			return scoreNanos;
+		}
+
+		/**
+		 * The held-out messages scored per second, not counting the time to
+		 * read and tokenize them.
+		 */
+		public double getMessagesPerSecond() {
+			return scoreNanos == 0 ? 0 : getMessages() * 1e9 / scoreNanos;
+		}
+
+		@Override
+		public String toString() {
+			return (fold < 0 ? "all folds" : "fold " + fold) + ": TP "
+					+ truePositives + ", FP " + falsePositives + ", TN "
+					+ trueNegatives + ", FN " + falseNegatives + ", accuracy "
+					+ getAccuracy() + ", precision " + getPrecision()
+					+ ", recall " + getRecall() + ", "
+					+ Math.round(getMessagesPerSecond()) + " msg/s";
+		}
+	}
+
+	/** The results of a cross-validation run. */
+	public static final class Report {
+		private final List<FoldResult> folds;
+		private final FoldResult total;
+		private final long tokenizeNanos;
+		private final long bytes;
+
+		Report(List<FoldResult> folds, long tokenizeNanos, long bytes) {
+			this.folds = Collections.unmodifiableList(folds);
+			int tp = 0, fp = 0, tn = 0, fn = 0;
+			long train = 0, score = 0;
+			for (FoldResult f : folds) {
+				tp += f.truePositives;
+				fp += f.falsePositives;
+				tn += f.trueNegatives;
+				fn += f.falseNegatives;
+				train += f.trainNanos;
+				score += f.scoreNanos;
+			}
+			this.total = new FoldResult(-1, tp, fp, tn, fn, train, score);
+			this.tokenizeNanos = tokenizeNanos;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * The results of each fold.
+		 */
+		public List<FoldResult> getFolds() {
+			return folds;
+		}
+
+		/**
+		 * The results of all folds together, with every message of the corpus
+		 * held out once.
+		 */
+		public FoldResult getTotal() {
+			return total;
+		}
+
+		/**
+		 * The time taken to read and tokenize the corpus.
+		 */
+		public long getTokenizeNanos() {
+			return tokenizeNanos;
+		}
+
+		/**
+		 * The messages read and tokenized per second.
+		 */
+		public double getTokenizeMessagesPerSecond() {
+			return tokenizeNanos == 0 ? 0 : total.getMessages() * 1e9
+					/ tokenizeNanos;
+		}
+
+		/**
+		 * The messages classified per second on one thread, counting both
+		 * tokenizing and scoring them.
+		 */
+		public double getMessagesPerSecond() {
+			long nanos = tokenizeNanos + total.scoreNanos;
+			return nanos == 0 ? 0 : total.getMessages() * 1e9 / nanos;
+		}
+
+		/**
+		 * Whether the total accuracy and the classification rate reach the
+		 * given minimums.
+		 */
+		public boolean meets(double minAccuracy, double minMessagesPerSecond) {
+			return total.getAccuracy() >= minAccuracy
+					&& getMessagesPerSecond() >= minMessagesPerSecond;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("tokenized ").append(total.getMessages())
+					.append(" messages, ").append(bytes / 1024)
+					.append(" KB in ").append(tokenizeNanos / 1000000)
+					.append(" ms\n");
+			for (FoldResult f : folds) {
+				sb.append(f).append('\n');
+			}
+			sb.append(total).append('\n');
+			sb.append(Math.round(getMessagesPerSecond())).append(
+					" msg/s tokenizing and scoring");
+			return sb.toString();
+		}
+	}
+
+	/** The threshold {@link #main(String[])} evaluates when none is given. */
+	static final double DEFAULT_THRESHOLD = 0.5;
+
+	private final SpamClassifier template;
+	private final int folds;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 42;
+
+	/**
+	 * @param template
+	 *            the settings and threshold to evaluate; it is not trained
+	 * @param folds
+	 *            the number of folds, at least 2
+	 */
+	public CrossValidator(SpamClassifier template, int folds) {
+		if (folds < 2) {
+			throw new IllegalArgumentException("Need at least two folds: "
+					+ folds);
+		}
+		if (template.getHashedFeatureBits() > 0) {
+			throw new IllegalArgumentException(
+					"Cannot cross-validate hashed features");
+		}
+		this.template = template;
+		this.folds = folds;
+	}
+
+	/**
+	 * Set the number of folds trained and scored at once.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Need at least one thread: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the seed of the random assignment of messages to folds.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Cross-validate on every file in the given spam and ham directories.
+	 */
+	public Report run(Path spamDir, Path hamDir) throws IOException {
+		return run(list(spamDir), list(hamDir));
+	}
+
+	/**
+	 * Cross-validate on the given spam and ham messages.
+	 */
+	public Report run(List<Path> spam, List<Path> ham) throws IOException {
+		long start = System.nanoTime();
+		TokenizedCorpus corpus = new TokenizedCorpus();
+		for (Path p : spam) {
+			corpus.add(p, true, this.template.tokenizerFactory());
+		}
+		for (Path p : ham) {
+			corpus.add(p, false, this.template.tokenizerFactory());
+		}
+		long tokenizeNanos = System.nanoTime() - start;
+
+		int[] foldOf = assignFolds(corpus);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				this.threads, this.folds));
+		try {
+			List<Future<FoldResult>> futures = new ArrayList<>();
+			for (int f = 0; f < this.folds; f++) {
+				final int fold = f;
+				futures.add(pool.submit(() -> runFold(corpus, foldOf, fold)));
+			}
+			List<FoldResult> results = new ArrayList<>();
+			for (Future<FoldResult> f : futures) {
+				results.add(SpamClassifier.waitFor(f));
+			}
+			return new Report(results, tokenizeNanos, corpus.bytes());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Deal the shuffled spam and the shuffled ham round-robin to the folds.
+	 */
+	private int[] assignFolds(TokenizedCorpus corpus) {
+		List<Integer> spam = new ArrayList<>();
+		List<Integer> ham = new ArrayList<>();
+		for (int i = 0; i < corpus.size(); i++) {
+			(corpus.isSpam(i) ? spam : ham).add(i);
+		}
+		Random random = new Random(this.seed);
+		Collections.shuffle(spam, random);
+		Collections.shuffle(ham, random);
+		int[] foldOf = new int[corpus.size()];
+		int next = 0;
+		for (List<Integer> messages : Arrays.asList(spam, ham)) {
+			for (int i : messages) {
+				foldOf[i] = next;
+				next = (next + 1) % this.folds;
+			}
+		}
+		return foldOf;
+	}
+
+	private FoldResult runFold(TokenizedCorpus corpus, int[] foldOf, int fold) {
+		long start = System.nanoTime();
+		Vocabulary dictionary = corpus.dictionary;
+		int words = dictionary.size();
+		int[] heldSpam = new int[words];
+		int[] heldHam = new int[words];
+		int spamMessages = 0;
+		int hamMessages = 0;
+		for (int i = 0; i < corpus.size(); i++) {
+			boolean held = foldOf[i] == fold;
+			boolean spam = corpus.isSpam(i);
+			if (!held) {
+				if (spam) {
+					spamMessages++;
+				} else {
+					hamMessages++;
+				}
+				continue;
+			}
+			for (int id : corpus.document(i)) {
+				if (spam) {
+					heldSpam[id]++;
+				} else {
+					heldHam[id]++;
+				}
+			}
+		}
+
+		Vocabulary v = new Vocabulary();
+		for (int id = 0; id < words; id++) {
+			int s = dictionary.spamCount(id) - heldSpam[id];
+			int h = dictionary.hamCount(id) - heldHam[id];
+			if (s + h > 0) {
+				int to = v.add(dictionary.word(id));
+				v.addSpam(to, s);
+				v.addHam(to, h);
+			}
+		}
+		if (this.template.getMaxWords() > 0) {
+			v.pruneTo(this.template.getMaxWords());
+		}
+		// reuse one of the count arrays to map dictionary ids to model ids
+		int[] remap = heldSpam;
+		for (int id = 0; id < words; id++) {
+			remap[id] = v.find(dictionary.word(id));
+		}
+		SpamClassifier model = new SpamClassifier();
+		model.copySettings(this.template);
+		model.setCounts(v, spamMessages, hamMessages);
+		long trained = System.nanoTime();
+
+		int tp = 0, fp = 0, tn = 0, fn = 0;
+		int[] ids = new int[64];
+		double threshold = model.getThreshold();
+		for (int i = 0; i < corpus.size(); i++) {
+			if (foldOf[i] != fold) {
+				continue;
+			}
+			int[] document = corpus.document(i);
+			if (ids.length < document.length) {
+				ids = new int[Math.max(document.length, ids.length * 2)];
+			}
+			int count = 0;
+			for (int id : document) {
+				if (remap[id] >= 0) {
+					ids[count++] = remap[id];
+				}
+			}
+			boolean spam = model.probSpamForIds(ids, count) > threshold;
+			if (corpus.isSpam(i)) {
+				if (spam) {
+					tp++;
+				} else {
+					fn++;
+				}
+			} else if (spam) {
+				fp++;
+			} else {
+				tn++;
+			}
+		}
+		long scored = System.nanoTime();
+		return new FoldResult(fold, tp, fp, tn, fn, trained - start, scored
+				- trained);
+	}
+
+	private static List<Path> list(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					files.add(p);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Cross-validate the default settings on the spam and ham folders of a
+	 * corpus at the given threshold, 0.5 if none is given, printing the
+	 * report. With minimums given, exit with status 1 if the accuracy or the
+	 * classification rate falls short.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3 && args.length != 5) {
+			System.err.println("Usage: CrossValidator corpusDir folds "
+					+ "[threshold [minAccuracy minMessagesPerSecond]]");
+			System.exit(2);
+		}
+		Path corpus = Paths.get(args[0]);
+		SpamClassifier template = new SpamClassifier();
+		template.setThreshold(args.length > 2 ? Double.parseDouble(args[2])
+				: DEFAULT_THRESHOLD);
+		CrossValidator validator = new CrossValidator(template,
+				Integer.parseInt(args[1]));
+		Report report = validator.run(corpus.resolve("spam"),
+				corpus.resolve("ham"));
+		System.out.println(report);
+		if (args.length == 5
+				&& !report.meets(Double.parseDouble(args[3]),
+						Double.parseDouble(args[4]))) {
+			System.err.println("Below the minimum accuracy " + args[3]
+					+ " or rate " + args[4] + " msg/s");
+			System.exit(1);
+		}
+	}
+}
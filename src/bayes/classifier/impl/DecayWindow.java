@@ -0,0 +1,138 @@
+package bayes.classifier.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The counts a {@link SpamClassifier} was trained on in each of its last few
+ * epochs, so that they can be taken out of the model again once they are
+ * older than the window.
+ * <p>
+ * The epochs are a ring of small vocabularies holding only the words trained
+ * in that epoch, next to the number of spam and ham messages. Every count in
+ * the model that was trained while decay was on is in exactly one epoch.
+ * Advancing the window subtracts the oldest epoch from the model and reuses
+ * its slot for the new one, which takes time in proportion to the words
+ * trained in that epoch rather than to the whole vocabulary.
+ */
+final class DecayWindow {
+	private final Vocabulary[] epochs;
+	private final int[] spamMessages;
+	private final int[] hamMessages;
+	private final long epochMillis;
+	private long epochStart;
+	private int current;
+
+	/**
+	 * @param epochs
+	 *            the number of epochs kept, including the current one
+	 * @param epochMillis
+	 *            the length of an epoch, or 0 to only advance on request
+	 * @param now
+	 *            the time the current epoch starts, in ms
+	 */
+	DecayWindow(int epochs, long epochMillis, long now) {
+		this.epochs = new Vocabulary[epochs];
+		this.spamMessages = new int[epochs];
+		this.hamMessages = new int[epochs];
+		for (int i = 0; i < epochs; i++) {
+			this.epochs[i] = new Vocabulary();
+		}
+		this.epochMillis = epochMillis;
+		this.epochStart = now;
+	}
+
+	int size() {
+		return epochs.length;
+	}
+
+	long epochMillis() {
+		return epochMillis;
+	}
+
+	/**
+	 * The word counts of the current epoch, to train into along with the
+	 * model.
+	 */
+	Vocabulary current() {
+		return epochs[current];
+	}
+
+	/**
+	 * Count trained messages in the current epoch.
+	 */
+	void countMessages(int spam, int ham) {
+		spamMessages[current] += spam;
+		hamMessages[current] += ham;
+	}
+
+	/**
+	 * The number of epochs that have ended by the given time, at most the
+	 * whole window. The clock moves on by that many epochs.
+	 */
+	int due(long now) {
+		if (epochMillis == 0 || now - epochStart < epochMillis) {
+			return 0;
+		}
+		long ended = (now - epochStart) / epochMillis;
+		epochStart += ended * epochMillis;
+		return (int) Math.min(ended, epochs.length);
+	}
+
+	/**
+	 * Start a new epoch, subtracting the counts of the oldest one from the
+	 * given model and message counters.
+	 */
+	void advance(Vocabulary model, AtomicInteger modelSpam,
+			AtomicInteger modelHam) {
+		current = (current + 1) % epochs.length;
+		Vocabulary expired = epochs[current];
+		for (int j = 0; j < expired.size(); j++) {
+			// the word is gone from the model if it was pruned
+			int id = model.find(expired.word(j));
+			if (id >= 0) {
+				model.addSpam(id, -expired.spamCount(j));
+				model.addHam(id, -expired.hamCount(j));
+			}
+		}
+		int spam = spamMessages[current];
+		int ham = hamMessages[current];
+		modelSpam.updateAndGet(n -> Math.max(0, n - spam));
+		modelHam.updateAndGet(n -> Math.max(0, n - ham));
+		epochs[current] = new Vocabulary();
+		spamMessages[current] = 0;
+		hamMessages[current] = 0;
+	}
+
+	/**
+	 * Remove one spam or ham count of the given word from the oldest epoch
+	 * that has one, so the counts kept longest are the newest.
+	 */
+	void removeWord(char[] buf, int len, int h, boolean spam) {
+		for (int i = 1; i <= epochs.length; i++) {
+			Vocabulary epoch = epochs[(current + i) % epochs.length];
+			int id = epoch.find(buf, len, h);
+			if (id >= 0 && (spam ? epoch.spamCount(id) : epoch.hamCount(id)) > 0) {
+				if (spam) {
+					epoch.addSpam(id, -1);
+				} else {
+					epoch.addHam(id, -1);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove one spam or ham message from the oldest epoch that has one.
+	 */
+	void removeMessage(boolean spam) {
+		int[] messages = spam ? spamMessages : hamMessages;
+		for (int i = 1; i <= epochs.length; i++) {
+			int e = (current + i) % epochs.length;
+			if (messages[e] > 0) {
+				messages[e]--;
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Trains a {@link SpamClassifier} on every file in a directory.
+ * <p>
+ * Files are listed with NIO, optionally recursively and filtered by a glob,
+ * and each one is opened, read and closed before the next, so ingesting a
+ * large corpus holds at most one file open per worker. Small files are read
+ * through a direct buffer that each worker reuses, large ones are
+ * memory-mapped. With {@link SpamClassifier#setTrainingThreads(int)} above 1
+ * the files are split into shards that are counted in parallel and merged,
+ * which gives the same counts as reading them one by one.
+ * <p>
+ * With a {@link #setCacheDirectory(Path) cache directory} the tokens of every
+ * directory ingested are saved there in a {@link CorpusCache}. Ingesting the
+ * same directory again, with a tokenizer of the same
+ * {@link Tokenizer#cacheIdentity() cache identity} and while no file has been
+ * added, removed, resized or touched, replays the saved tokens instead of
+ * reading the files. Building a cache tokenizes on one thread. Tokenizers
+ * without a cache identity are never cached.
+ */
+public class DirectoryIngester {
+	private final SpamClassifier classifier;
+	private boolean recursive;
+	private PathMatcher matcher;
+	private String glob;
+	private boolean matchNames;
+	private long mapThreshold = 1 << 20;
+	private Path cacheDirectory;
+
+	/**
+	 * @param classifier
+	 *            the model to train, whose
+	 *            {@link SpamClassifier#setCorpusCache(Path) corpus cache} this
+	 *            ingester uses
+	 */
+	public DirectoryIngester(SpamClassifier classifier) {
+		this.classifier = classifier;
+		this.cacheDirectory = classifier.getCorpusCache();
+	}
+
+	/**
+	 * Also read the files in subdirectories. Off by default.
+	 */
+	public void setRecursive(boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	/**
+	 * Only read files matching the given glob, such as "*.txt". A glob
+	 * without a '/' is matched against file names, any other against the path
+	 * relative to the directory being ingested. Null reads every file.
+	 */
+	public void setGlob(String glob) {
+		this.matcher = glob == null ? null : FileSystems.getDefault()
+				.getPathMatcher("glob:" + glob);
+		this.matchNames = glob != null && glob.indexOf('/') < 0;
+		this.glob = glob;
+	}
+
+	/**
+	 * Memory-map files of at least this many bytes instead of reading them
+	 * through a buffer. 1 MB by default.
+	 */
+	public void setMapThreshold(long bytes) {
+		this.mapThreshold = bytes;
+	}
+
+	/**
+	 * Keep the tokens of the directories ingested in the given directory, or
+	 * in none if it is null.
+	 */
+	public void setCacheDirectory(Path dir) {
+		this.cacheDirectory = dir;
+	}
+
+	/**
+	 * Train on the files in the given directory as spam.
+	 */
+	public IngestStats addAllSpamFiles(Path dir) throws IOException {
+		return addAll(dir, true);
+	}
+
+	/**
+	 * Train on the files in the given directory as ham.
+	 */
+	public IngestStats addAllHamFiles(Path dir) throws IOException {
+		return addAll(dir, false);
+	}
+
+	private IngestStats addAll(Path dir, boolean spam) throws IOException {
+		long start = System.nanoTime();
+		List<Path> files = list(dir);
+		int shards = Math.min(classifier.getTrainingThreads(), files.size());
+		long bytes = 0;
+		String tokenizer = cacheDirectory == null ? null : MessageBuffers
+				.get().tokenizer(classifier.tokenizerFactory()).cacheIdentity();
+		if (tokenizer != null) {
+			bytes = readCached(dir, files, spam, tokenizer);
+		} else if (shards <= 1) {
+			// each message is counted along with its words, so a failed file
+			// leaves the model consistent
+			bytes = read(files, 0, files.size(), classifier.writableFeatures(), spam,
+					true);
+			return new IngestStats(files.size(), bytes, System.nanoTime()
+					- start);
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(shards);
+			try {
+				List<Future<FeatureTable>> partials = new ArrayList<>();
+				long[] shardBytes = new long[shards];
+				for (int shard = 0; shard < shards; shard++) {
+					final int s = shard;
+					final int from = (int) ((long) files.size() * shard / shards);
+					final int to = (int) ((long) files.size() * (shard + 1) / shards);
+					partials.add(pool.submit(new Callable<FeatureTable>() {
+						@Override
+						public FeatureTable call() throws IOException {
+							FeatureTable partial = classifier.features().empty();
+							shardBytes[s] = read(files, from, to, partial, spam,
+									false);
+							return partial;
+						}
+					}));
+				}
+				// add nothing unless every shard was read
+				List<FeatureTable> counts = new ArrayList<>();
+				for (Future<FeatureTable> f : partials) {
+					counts.add(SpamClassifier.waitFor(f));
+				}
+				for (FeatureTable c : counts) {
+					classifier.addCounts(c);
+				}
+				for (long b : shardBytes) {
+					bytes += b;
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		for (Path f : files) {
+			countMessage(f, spam);
+		}
+		return new IngestStats(files.size(), bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Count the files through the cache of the directory, building the cache
+	 * if it is missing or stale. The cache file is named by the SHA-256 of
+	 * its key, so different directories do not overwrite each other's.
+	 * 
+	 * @param tokenizer
+	 *            the {@link Tokenizer#cacheIdentity() cache identity} of the
+	 *            tokenizer
+	 * @return the number of bytes read, from the cache or from the files
+	 */
+	private long readCached(Path dir, List<Path> files, boolean spam,
+			String tokenizer) throws IOException {
+		Path absolute = dir.toAbsolutePath().normalize();
+		String key = absolute + (recursive ? " recursive" : "")
+				+ (matcher == null ? "" : " glob " + glob);
+		CorpusCache.Manifest manifest = CorpusCache.Manifest.of(key, dir,
+				files);
+		Files.createDirectories(cacheDirectory);
+		Path cache = cacheDirectory.resolve(sha256(key) + ".corpus");
+		TokenizedCorpus corpus = CorpusCache.read(cache, manifest, tokenizer,
+				spam);
+		long bytes;
+		if (corpus != null) {
+			bytes = Files.size(cache);
+		} else {
+			corpus = new TokenizedCorpus();
+			for (Path f : files) {
+				corpus.add(f, spam, classifier.tokenizerFactory());
+			}
+			CorpusCache.write(cache, manifest, tokenizer, corpus);
+			bytes = corpus.bytes();
+		}
+		classifier.addCounts(corpus);
+		return bytes;
+	}
+
+	private static String sha256(String s) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(
+					s.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder(2 * digest.length);
+		for (byte b : digest) {
+			hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Count the files from index from to index to into the given table.
+	 * 
+	 * @param countMessages
+	 *            whether to count each message in the classifier as soon as
+	 *            its words are counted
+	 * @return the number of bytes read
+	 */
+	private long read(List<Path> files, int from, int to, FeatureTable counts,
+			boolean spam, boolean countMessages) throws IOException {
+		FileInput in = new FileInput(mapThreshold);
+		for (int i = from; i < to; i++) {
+			boolean counting = false;
+			try (FileChannel channel = FileChannel.open(files.get(i),
+					StandardOpenOption.READ)) {
+				in.open(channel);
+				counting = countMessages;
+				classifier.countDocument(in, counts, spam);
+			} finally {
+				in.release();
+				if (counting) {
+					// a message that failed part way is counted, as its words
+					// read so far are
+					countMessage(files.get(i), spam);
+				}
+			}
+		}
+		return in.bytesRead();
+	}
+
+	private void countMessage(Path file, boolean spam) {
+		String name = file.getFileName().toString();
+		if (spam) {
+			classifier.countSpamMessage(name);
+		} else {
+			classifier.countHamMessage(name);
+		}
+	}
+
+	/**
+	 * The regular files to read, in a stable order.
+	 */
+	private List<Path> list(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		if (recursive) {
+			try (Stream<Path> walk = Files.walk(dir)) {
+				walk.filter(p -> Files.isRegularFile(p) && matches(dir, p))
+						.forEach(files::add);
+			}
+		} else {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path p : stream) {
+					if (Files.isRegularFile(p) && matches(dir, p)) {
+						files.add(p);
+					}
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private boolean matches(Path dir, Path file) {
+		if (matcher == null) {
+			return true;
+		}
+		return matcher.matches(matchNames ? file.getFileName() : dir
+				.relativize(file));
+	}
+}
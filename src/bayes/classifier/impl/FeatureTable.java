@@ -0,0 +1,104 @@
+package bayes.classifier.impl;
+
+/**
+ * The per-word counts and scores of a {@link SpamClassifier}, indexed by a
+ * dense int id per word.
+ * <p>
+ * A {@link Vocabulary} gives every distinct word its own id. A
+ * {@link HashedFeatureTable} hashes words into a fixed number of ids instead,
+ * so words that hash alike share their counts.
+ */
+interface FeatureTable {
+	/**
+	 * Return the id of the given word, or -1 if it has no counts.
+	 */
+	int find(String word);
+
+	/**
+	 * Return the id of the word held in the first len chars of the given
+	 * buffer, or -1 if it has no counts.
+	 * 
+	 * @param h
+	 *            the {@link String#hashCode()} of the word
+	 */
+	int find(char[] buf, int len, int h);
+
+	/**
+	 * Return the id of the word held in the first len chars of the given
+	 * buffer, making room for it if needed.
+	 * 
+	 * @param h
+	 *            the {@link String#hashCode()} of the word
+	 */
+	int add(char[] buf, int len, int h);
+
+	/**
+	 * One more than the largest id in use.
+	 */
+	int size();
+
+	int spamCount(int id);
+
+	int hamCount(int id);
+
+	/**
+	 * The number of spam messages containing the given word, or 0.
+	 */
+	int spamCount(String word);
+
+	/**
+	 * The number of ham messages containing the given word, or 0.
+	 */
+	int hamCount(String word);
+
+	/**
+	 * The largest spam or ham count any id has had. Removing counts does not
+	 * lower it.
+	 */
+	int maxCount();
+
+	/**
+	 * The probability that a message containing the word with the given id is
+	 * spam, clamped to 0.95 and 0.05 for words seen in only one class.
+	 */
+	double prob(int id);
+
+	/**
+	 * log(prob / (1 - prob)), with the same clamping as {@link #prob(int)}.
+	 */
+	double logOdds(int id);
+
+	/**
+	 * Add n to the spam count of the given id. A negative n removes counts,
+	 * but never takes a count below zero.
+	 */
+	void addSpam(int id, int n);
+
+	/**
+	 * Add n to the ham count of the given id, like
+	 * {@link #addSpam(int, int)}.
+	 */
+	void addHam(int id, int n);
+
+	/**
+	 * Add all the counts of the other table to this one. The other table must
+	 * be of the same kind, except that a hashed table also takes a
+	 * vocabulary.
+	 */
+	void addAll(FeatureTable other);
+
+	/**
+	 * A copy of this table with its own counts.
+	 */
+	FeatureTable copy();
+
+	/**
+	 * An empty table of the same kind and size as this one.
+	 */
+	FeatureTable empty();
+
+	/**
+	 * An estimate of the memory taken by the table, in bytes.
+	 */
+	long sizeInBytes();
+}
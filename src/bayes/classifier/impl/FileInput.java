@@ -0,0 +1,100 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A reusable stream over one file at a time. Small files are read through a
+ * direct buffer that is kept for the life of the reader, large files are
+ * memory-mapped. The stream never closes the channel; its owner does.
+ */
+final class FileInput extends InputStream {
+	private final ByteBuffer direct = ByteBuffer.allocateDirect(1 << 16);
+	private final long mapThreshold;
+	private FileChannel channel;
+	private ByteBuffer current;
+	private long bytes;
+
+	/**
+	 * @param mapThreshold
+	 *            files of at least this many bytes are memory-mapped
+	 */
+	FileInput(long mapThreshold) {
+		this.mapThreshold = mapThreshold;
+	}
+
+	/**
+	 * Start reading the given file from its beginning.
+	 */
+	void open(FileChannel file) throws IOException {
+		long size = file.size();
+		if (size >= mapThreshold && size <= Integer.MAX_VALUE) {
+			this.current = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			this.channel = null;
+		} else {
+			this.direct.clear().flip();
+			this.current = direct;
+			this.channel = file;
+		}
+	}
+
+	/**
+	 * Release the current file.
+	 */
+	void release() {
+		this.channel = null;
+		this.current = null;
+	}
+
+	/**
+	 * The number of bytes read through this reader so far.
+	 */
+	long bytesRead() {
+		return bytes;
+	}
+
+	private boolean fill() throws IOException {
+		while (!current.hasRemaining()) {
+			if (channel == null) {
+				return false;
+			}
+			direct.clear();
+			int n = channel.read(direct);
+			direct.flip();
+			if (n < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		bytes++;
+		return current.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = Math.min(len, current.remaining());
+		current.get(b, off, n);
+		bytes += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.remaining();
+	}
+}
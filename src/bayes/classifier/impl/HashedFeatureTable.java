@@ -0,0 +1,239 @@
+package bayes.classifier.impl;
+
+/**
+ * Word counts kept by the hashing trick: every word is hashed with
+ * MurmurHash3 straight from the tokenizer's char buffer to one of a fixed
+ * number of buckets, and the bucket is its id.
+ * <p>
+ * No word is ever turned into a String or stored, so training allocates
+ * nothing per word and the table takes the same memory however many distinct
+ * words the corpus has: 24 bytes per bucket for the counts and cached scores.
+ * The price is collisions. Words that share a bucket share their counts, and
+ * with n distinct words in m buckets about 1 - e^(-n/m) of the words share
+ * their bucket with another word, for example 4% of 10,000 words in 2^18
+ * buckets and 32% of 100,000. Most of those words are rare, so the effect on
+ * scores is much smaller than the collision rate suggests; TestEnron prints
+ * the accuracy of both kinds of table side by side.
+ */
+final class HashedFeatureTable implements FeatureTable {
+	private static final int SEED = 0x5350414D;
+
+	private final int bits;
+	private final int mask;
+	private int[] spamCounts;
+	private int[] hamCounts;
+	private double[] probs;
+	private double[] logOdds;
+	private int maxCount;
+
+	/**
+	 * @param bits
+	 *            the table has 2^bits buckets
+	 */
+	HashedFeatureTable(int bits) {
+		if (bits < 1 || bits > 30) {
+			throw new IllegalArgumentException(
+					"Hashed feature bits must be between 1 and 30: " + bits);
+		}
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.spamCounts = new int[1 << bits];
+		this.hamCounts = new int[1 << bits];
+		this.probs = new double[1 << bits];
+		this.logOdds = new double[1 << bits];
+	}
+
+	/**
+	 * The number of bits of the bucket index.
+	 */
+	int bits() {
+		return bits;
+	}
+
+	/**
+	 * The 32-bit MurmurHash3 of the chars, taken two at a time.
+	 */
+	static int murmur3(char[] buf, int len) {
+		int h = SEED;
+		int i = 0;
+		for (; i + 1 < len; i += 2) {
+			h ^= mixK(buf[i] | buf[i + 1] << 16);
+			h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+		}
+		if (i < len) {
+			h ^= mixK(buf[i]);
+		}
+		h ^= len * 2;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int mixK(int k) {
+		k *= 0xcc9e2d51;
+		k = Integer.rotateLeft(k, 15);
+		return k * 0x1b873593;
+	}
+
+	private int bucket(char[] buf, int len) {
+		return murmur3(buf, len) & mask;
+	}
+
+	@Override
+	public int find(String word) {
+		int id = bucket(word.toCharArray(), word.length());
+		return spamCounts[id] == 0 && hamCounts[id] == 0 ? -1 : id;
+	}
+
+	@Override
+	public int find(char[] buf, int len, int h) {
+		int id = bucket(buf, len);
+		return spamCounts[id] == 0 && hamCounts[id] == 0 ? -1 : id;
+	}
+
+	@Override
+	public int add(char[] buf, int len, int h) {
+		return bucket(buf, len);
+	}
+
+	@Override
+	public int size() {
+		return mask + 1;
+	}
+
+	@Override
+	public int spamCount(int id) {
+		return spamCounts[id];
+	}
+
+	@Override
+	public int hamCount(int id) {
+		return hamCounts[id];
+	}
+
+	@Override
+	public int spamCount(String word) {
+		return spamCounts[bucket(word.toCharArray(), word.length())];
+	}
+
+	@Override
+	public int hamCount(String word) {
+		return hamCounts[bucket(word.toCharArray(), word.length())];
+	}
+
+	@Override
+	public int maxCount() {
+		return maxCount;
+	}
+
+	@Override
+	public double prob(int id) {
+		return probs[id];
+	}
+
+	@Override
+	public double logOdds(int id) {
+		return logOdds[id];
+	}
+
+	@Override
+	public void addSpam(int id, int n) {
+		spamCounts[id] = Math.max(0, spamCounts[id] + n);
+		maxCount = Math.max(maxCount, spamCounts[id]);
+		rescore(id);
+	}
+
+	@Override
+	public void addHam(int id, int n) {
+		hamCounts[id] = Math.max(0, hamCounts[id] + n);
+		maxCount = Math.max(maxCount, hamCounts[id]);
+		rescore(id);
+	}
+
+	private void rescore(int id) {
+		int spam = spamCounts[id];
+		int ham = hamCounts[id];
+		if (ham == 0) {
+			probs[id] = 0.95;
+			logOdds[id] = Vocabulary.LOG_ODDS_CLAMP;
+		} else if (spam == 0) {
+			probs[id] = 0.05;
+			logOdds[id] = -Vocabulary.LOG_ODDS_CLAMP;
+		} else {
+			probs[id] = (double) spam / (spam + ham);
+			logOdds[id] = Math.log((double) spam / ham);
+		}
+	}
+
+	/**
+	 * Add the counts of another table of the same size, or of a
+	 * {@link Vocabulary} by hashing each of its words into its bucket.
+	 */
+	@Override
+	public void addAll(FeatureTable table) {
+		if (table instanceof Vocabulary) {
+			Vocabulary words = (Vocabulary) table;
+			for (int j = 0; j < words.size(); j++) {
+				String word = words.word(j);
+				int id = bucket(word.toCharArray(), word.length());
+				addSpam(id, words.spamCount(j));
+				addHam(id, words.hamCount(j));
+			}
+			return;
+		}
+		HashedFeatureTable other = (HashedFeatureTable) table;
+		if (other.bits != bits) {
+			throw new IllegalArgumentException("Cannot add a table of 2^"
+					+ other.bits + " buckets to one of 2^" + bits);
+		}
+		for (int id = 0; id <= mask; id++) {
+			if (other.spamCounts[id] != 0) {
+				addSpam(id, other.spamCounts[id]);
+			}
+			if (other.hamCounts[id] != 0) {
+				addHam(id, other.hamCounts[id]);
+			}
+		}
+	}
+
+	/**
+	 * Replace all the counts with the given ones, as read from a saved model.
+	 */
+	void setCounts(int[] spam, int[] ham) {
+		if (spam.length != size() || ham.length != size()) {
+			throw new IllegalArgumentException("Expected " + size()
+					+ " counts");
+		}
+		spamCounts = spam;
+		hamCounts = ham;
+		maxCount = 0;
+		for (int id = 0; id <= mask; id++) {
+			maxCount = Math.max(maxCount, Math.max(spam[id], ham[id]));
+			rescore(id);
+		}
+	}
+
+	@Override
+	public HashedFeatureTable copy() {
+		HashedFeatureTable t = new HashedFeatureTable(bits);
+		System.arraycopy(spamCounts, 0, t.spamCounts, 0, spamCounts.length);
+		System.arraycopy(hamCounts, 0, t.hamCounts, 0, hamCounts.length);
+		System.arraycopy(probs, 0, t.probs, 0, probs.length);
+		System.arraycopy(logOdds, 0, t.logOdds, 0, logOdds.length);
+		t.maxCount = maxCount;
+		return t;
+	}
+
+	@Override
+	public HashedFeatureTable empty() {
+		return new HashedFeatureTable(bits);
+	}
+
+	@Override
+	public long sizeInBytes() {
+		return (4L + 4 + 8 + 8) * size();
+	}
+}
@@ -0,0 +1,111 @@
+package bayes.classifier.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of non-negative long values, such as latencies in
+ * nanoseconds, with a relative error of at most 1/16.
+ * <p>
+ * Like HdrHistogram, values are counted in buckets that are linear within
+ * each power of two: every power of two is split into 16 buckets, so
+ * recording is a few shifts and one atomic increment, and the histogram takes
+ * a fixed 8 KB however many values it holds.
+ */
+public final class Histogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * The bucket of the given value.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * The smallest value counted in the given bucket.
+	 */
+	static long lowestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * Count one occurrence of the given value.
+	 */
+	public void record(long value) {
+		counts.incrementAndGet(bucket(value));
+	}
+
+	/**
+	 * The number of values recorded.
+	 */
+	public long getCount() {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		return n;
+	}
+
+	/**
+	 * The value below which the given fraction of the recorded values fall,
+	 * as the lowest value of its bucket, or 0 if nothing has been recorded.
+	 * 
+	 * @param quantile
+	 *            between 0 and 1, for example 0.99
+	 */
+	public long getValueAtQuantile(double quantile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return lowestValue(i);
+			}
+		}
+		return lowestValue(BUCKETS - 1);
+	}
+
+	/**
+	 * The largest value recorded, to within the bucket precision, or 0.
+	 */
+	public long getMax() {
+		for (int i = BUCKETS - 1; i >= 0; i--) {
+			if (counts.get(i) != 0) {
+				return lowestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Forget all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+}
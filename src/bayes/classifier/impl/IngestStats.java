@@ -0,0 +1,54 @@
+package bayes.classifier.impl;
+
+/**
+ * How much a directory ingestion read and how fast.
+ * 
+ * @see DirectoryIngester
+ */
+public final class IngestStats {
+	private final int files;
+	private final long bytes;
+	private final long nanos;
+
+	IngestStats(int files, long bytes, long nanos) {
+		this.files = files;
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * The number of files trained on.
+	 */
+	public int getFiles() {
+		return files;
+	}
+
+	/**
+	 * The number of bytes read.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * The wall clock time the ingestion took, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return nanos;
+	}
+
+	public double getFilesPerSecond() {
+		return nanos == 0 ? 0 : files * 1e9 / nanos;
+	}
+
+	public double getBytesPerSecond() {
+		return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d files, %d bytes in %.3f s (%.0f files/s, %.1f MB/s)",
+				files, bytes, nanos / 1e9, getFilesPerSecond(),
+				getBytesPerSecond() / (1 << 20));
+	}
+}
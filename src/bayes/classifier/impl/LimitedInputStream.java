@@ -0,0 +1,194 @@
+package bayes.classifier.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Passes at most a given number of bytes of a message through to the
+ * tokenizer, either from its start or from its start and its end. It is
+ * reused for every message a thread scores, so the tail buffer is only
+ * allocated when it has to grow.
+ * <p>
+ * When both ends are read, a newline is put between them so that the last
+ * word of the head and the first word of the tail are not joined.
+ */
+final class LimitedInputStream extends InputStream {
+	private InputStream in;
+	/** Bytes still to pass through before the tail, or the end. */
+	private long head;
+	/** Bytes of the end of the stream to pass through after the head. */
+	private long tail;
+	private boolean inTail;
+	private boolean truncated;
+	private boolean separator;
+	private final byte[] single = new byte[1];
+	private byte[] ring = new byte[0];
+	private int ringSize;
+	private int ringStart;
+	private int ringLength;
+	/** Bytes still to pass through from the stream itself in the tail. */
+	private long tailLeft;
+
+	/**
+	 * Limit the given stream, or release the current one if it is null.
+	 */
+	LimitedInputStream reset(InputStream in, long maxBytes, boolean headAndTail) {
+		this.in = in;
+		this.tail = headAndTail ? maxBytes / 2 : 0;
+		this.head = maxBytes - this.tail;
+		this.inTail = false;
+		this.truncated = false;
+		this.separator = false;
+		this.ringStart = 0;
+		this.ringLength = 0;
+		this.tailLeft = 0;
+		return this;
+	}
+
+	/**
+	 * Return true if bytes of the stream were left out.
+	 */
+	boolean truncated() {
+		return truncated;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (head > 0) {
+			int n = in.read(b, off, (int) Math.min(len, head));
+			if (n < 0) {
+				// the whole stream fit, so there is no tail to read
+				head = 0;
+				inTail = true;
+				return -1;
+			}
+			head -= n;
+			return n;
+		}
+		if (!inTail) {
+			startTail();
+		}
+		if (separator) {
+			separator = false;
+			b[off] = '\n';
+			return 1;
+		}
+		if (ringLength > 0) {
+			int n = Math.min(len, Math.min(ringLength, ringSize - ringStart));
+			System.arraycopy(ring, ringStart, b, off, n);
+			ringStart = (ringStart + n) % ringSize;
+			ringLength -= n;
+			return n;
+		}
+		if (tailLeft > 0) {
+			int n = in.read(b, off, (int) Math.min(len, tailLeft));
+			if (n < 0) {
+				tailLeft = 0;
+				return -1;
+			}
+			tailLeft -= n;
+			return n;
+		}
+		return -1;
+	}
+
+	/**
+	 * The head has been read: find the tail, skipping the middle of the
+	 * stream if its length is known and keeping the last bytes in the ring
+	 * otherwise.
+	 */
+	private void startTail() throws IOException {
+		inTail = true;
+		if (tail == 0) {
+			truncated = in.read() >= 0;
+			return;
+		}
+		long remaining = remainingBytes(in);
+		if (remaining >= 0) {
+			long skip = remaining - tail;
+			while (skip > 0) {
+				long n = in.skip(skip);
+				if (n <= 0) {
+					if (in.read() < 0) {
+						break;
+					}
+					n = 1;
+				}
+				skip -= n;
+			}
+			truncated = separator = remaining > tail;
+			tailLeft = tail;
+			return;
+		}
+		if (tail > Integer.MAX_VALUE - 8) {
+			throw new IOException("Tail of " + tail
+					+ " bytes is too long to buffer");
+		}
+		ringSize = (int) tail;
+		if (ring.length < ringSize) {
+			ring = new byte[ringSize];
+		}
+		int end = 0;
+		long total = 0;
+		for (int n; (n = in.read(ring, end, ringSize - end)) >= 0;) {
+			total += n;
+			end = (end + n) % ringSize;
+		}
+		truncated = separator = total > tail;
+		ringStart = total > tail ? end : 0;
+		ringLength = (int) Math.min(total, tail);
+	}
+
+	/**
+	 * An upper bound on the bytes left to read, or -1 when it is not known.
+	 */
+	long remaining() throws IOException {
+		if (inTail) {
+			return (separator ? 1 : 0) + ringLength + tailLeft;
+		}
+		long rest = remainingBytes(in);
+		long bound = head + (tail > 0 ? tail + 1 : 0);
+		return rest < 0 ? bound : Math.min(rest + (tail > 0 ? 1 : 0), bound);
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (inTail) {
+			return (separator ? 1 : 0) + ringLength
+					+ (int) Math.min(tailLeft, in.available());
+		}
+		return (int) Math.min(head, in.available());
+	}
+
+	/**
+	 * The exact number of bytes left in the given stream, or -1 when that
+	 * cannot be known. {@link InputStream#available()} is only an estimate in
+	 * general, so it is trusted only for byte arrays and regular files. For a
+	 * limited stream this is an upper bound.
+	 */
+	static long remainingBytes(InputStream in) throws IOException {
+		if (in instanceof ByteArrayInputStream) {
+			return in.available();
+		}
+		if (in instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			long size = channel.size();
+			return size > 0 ? size - channel.position() : -1;
+		}
+		if (in instanceof LimitedInputStream) {
+			return ((LimitedInputStream) in).remaining();
+		}
+		return -1;
+	}
+}
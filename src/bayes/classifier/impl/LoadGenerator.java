@@ -0,0 +1,212 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the latency of a running {@link ClassificationServer} by sending
+ * it messages from a number of concurrent clients.
+ * <p>
+ * The messages are read into memory up front and sent in turn to the
+ * /classify endpoint, each client waiting for the answer before sending the
+ * next request, so the load is closed-loop. Every request's latency, from
+ * sending the first byte to reading the last byte of the answer, is recorded
+ * in a {@link Histogram}.
+ */
+public class LoadGenerator {
+	/** The latencies and throughput of a run. */
+	public static final class Result {
+		private final Histogram latencies;
+		private final long errors;
+		private final long nanos;
+
+		Result(Histogram latencies, long errors, long nanos) {
+			this.latencies = latencies;
+			this.errors = errors;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * The latencies of the successful requests, in nanoseconds.
+		 */
+		public Histogram getLatencies() {
+			return latencies;
+		}
+
+		/**
+		 * The number of requests that failed or were not answered with 200.
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * The wall clock time of the run.
+		 */
+		public long getElapsedNanos() {
+			return nanos;
+		}
+
+		public double getRequestsPerSecond() {
+			return nanos == 0 ? 0 : latencies.getCount() * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d requests, %d errors in %.3f s "
+					+ "(%.0f req/s), latency p50 %.3f ms, p99 %.3f ms, "
+					+ "max %.3f ms", latencies.getCount(), errors, nanos / 1e9,
+					getRequestsPerSecond(),
+					latencies.getValueAtQuantile(0.5) / 1e6,
+					latencies.getValueAtQuantile(0.99) / 1e6,
+					latencies.getMax() / 1e6);
+		}
+	}
+
+	private final URL classifyUrl;
+	private final int clients;
+
+	/**
+	 * @param classifyUrl
+	 *            the /classify endpoint of the server
+	 * @param clients
+	 *            the number of concurrent clients
+	 */
+	public LoadGenerator(URL classifyUrl, int clients) {
+		if (clients < 1) {
+			throw new IllegalArgumentException("Need at least one client: "
+					+ clients);
+		}
+		this.classifyUrl = classifyUrl;
+		this.clients = clients;
+	}
+
+	/**
+	 * Send the given number of requests, cycling through the messages.
+	 */
+	public Result run(List<Path> messages, int requests) throws IOException {
+		if (messages.isEmpty()) {
+			throw new IllegalArgumentException("No messages to send");
+		}
+		List<byte[]> bodies = new ArrayList<>();
+		for (Path p : messages) {
+			bodies.add(Files.readAllBytes(p));
+		}
+		Histogram latencies = new Histogram();
+		LongAdder errors = new LongAdder();
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < clients; c++) {
+				futures.add(pool.submit(() -> {
+					for (int i = next.getAndIncrement(); i < requests; i = next
+							.getAndIncrement()) {
+						long sent = System.nanoTime();
+						if (send(bodies.get(i % bodies.size()))) {
+							latencies.record(System.nanoTime() - sent);
+						} else {
+							errors.increment();
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f : futures) {
+				SpamClassifier.waitFor(f);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Result(latencies, errors.sum(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Send one message and read the whole answer, so that the connection can
+	 * be kept alive for the next request.
+	 *
+	 * @return whether the server answered 200
+	 */
+	private boolean send(byte[] body) throws InterruptedIOException {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) classifyUrl.openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+			int status = connection.getResponseCode();
+			try (InputStream in = status == 200 ? connection.getInputStream()
+					: connection.getErrorStream()) {
+				drain(in);
+			}
+			return status == 200;
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			if (connection != null) {
+				connection.disconnect();
+			}
+			return false;
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		byte[] buf = new byte[512];
+		while (in.read(buf) >= 0) {
+			// the answer is only timed, not checked
+		}
+	}
+
+	private static List<Path> list(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					files.add(p);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Send the messages in a directory to a server and print the latencies.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: LoadGenerator http://host:port/classify "
+					+ "messageDir clients requests");
+			System.exit(2);
+		}
+		LoadGenerator generator = new LoadGenerator(new URL(args[0]),
+				Integer.parseInt(args[2]));
+		// warm up the server and the client before measuring
+		generator.run(list(Paths.get(args[1])), Integer.parseInt(args[3]) / 10);
+		System.out.println(generator.run(list(Paths.get(args[1])),
+				Integer.parseInt(args[3])));
+	}
+}
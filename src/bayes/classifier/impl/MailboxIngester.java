@@ -0,0 +1,528 @@
+package bayes.classifier.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Trains a {@link SpamClassifier} straight from mbox files and maildir
+ * folders, without splitting them into one file per message first.
+ * <p>
+ * Each message is identified by a key, its byte offset in an mbox file or its
+ * unique file name (without flags) in a maildir, and a {@link Labeler} decides
+ * whether it is spam, ham or skipped. The ingester remembers what it has read
+ * in every source: how far it got in an mbox, and the names of the messages
+ * still in a maildir that it has read. Calling it again on an mbox that has
+ * grown, or a maildir that has new mail, only reads what was added, even mail
+ * delivered late under an older name. With
+ * {@link #setCheckpoint(Path, Path)} those positions and the model are saved
+ * every few messages so that a restarted process resumes where it left off.
+ * The maildir names go to a journal next to the checkpoint file that only
+ * has the names read since the last checkpoint appended to it, and that is
+ * rewritten without the deleted messages once they make up half of it. A
+ * crash between saving the model and saving the positions can train up to
+ * one checkpoint interval of messages twice, never skip any.
+ */
+public class MailboxIngester {
+	/** What to do with a message. */
+	public enum Label {
+		SPAM, HAM, SKIP
+	}
+
+	/** Decides the label of each message. */
+	public interface Labeler {
+		/**
+		 * @param key
+		 *            the mbox byte offset or maildir file name of the message
+		 * @param message
+		 *            the raw message, valid up to length and only during the
+		 *            call
+		 * @param length
+		 *            the number of bytes in the message
+		 */
+		Label label(String key, byte[] message, int length);
+
+		/**
+		 * Label every message the same.
+		 */
+		static Labeler constant(Label label) {
+			return (key, message, length) -> label;
+		}
+
+		/**
+		 * Label messages from a file with one "key label" pair per line,
+		 * where the label is spam or ham. Messages that are not listed are
+		 * skipped.
+		 */
+		static Labeler fromFile(Path labels) throws IOException {
+			Map<String, Label> map = new HashMap<>();
+			for (String line : Files.readAllLines(labels)) {
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length == 2) {
+					map.put(parts[0], Label.valueOf(parts[1].toUpperCase()));
+				}
+			}
+			return (key, message, length) -> {
+				Label l = map.get(key);
+				return l == null ? Label.SKIP : l;
+			};
+		}
+	}
+
+	private static final byte[] FROM = { 'F', 'r', 'o', 'm', ' ' };
+
+	private final SpamClassifier classifier;
+	private final Labeler labeler;
+	private final Properties positions = new Properties();
+	/** The names of the messages read from each maildir, by its path. */
+	private final Map<String, Set<String>> maildirNames = new HashMap<>();
+	/** Journal lines for the names read since the last checkpoint. */
+	private final List<String> unsavedNames = new ArrayList<>();
+	/** The number of lines in the name journal. */
+	private long journalLines;
+	/** Whether names were read before the journal was set. */
+	private boolean rewriteJournal;
+	private Path checkpointFile;
+	private Path modelFile;
+	private int checkpointInterval = 1000;
+	private int sinceCheckpoint;
+	private boolean follow;
+	private byte[] message = new byte[8192];
+	private int length;
+
+	/**
+	 * @param classifier
+	 *            the model to train in place
+	 * @param labeler
+	 *            decides which messages are spam and which are ham
+	 */
+	public MailboxIngester(SpamClassifier classifier, Labeler labeler) {
+		this.classifier = classifier;
+		this.labeler = labeler;
+	}
+
+	/**
+	 * Save the read positions to the given file every few messages, and the
+	 * model too if modelFile is not null. The names read from maildirs are
+	 * kept in a journal named after the checkpoint file with ".maildir"
+	 * appended. Positions already saved are loaded, so a new ingester
+	 * continues where the last one stopped; load the model from modelFile
+	 * yourself before ingesting.
+	 */
+	public void setCheckpoint(Path checkpointFile, Path modelFile)
+			throws IOException {
+		this.checkpointFile = checkpointFile;
+		this.modelFile = modelFile;
+		if (Files.exists(checkpointFile)) {
+			try (InputStream in = Files.newInputStream(checkpointFile)) {
+				this.positions.load(in);
+			}
+		}
+		rewriteJournal = !maildirNames.isEmpty();
+		Path journal = journalFile();
+		if (Files.exists(journal)) {
+			String names = new String(Files.readAllBytes(journal),
+					StandardCharsets.UTF_8);
+			// a line cut short by a crash has no newline and is ignored
+			int start = 0;
+			for (int end; (end = names.indexOf('\n', start)) >= 0; start = end + 1) {
+				// a file name cannot contain a slash, so the name ends at the
+				// first one and the maildir follows
+				int slash = names.indexOf('/', start);
+				if (slash >= 0 && slash < end) {
+					maildirNames.computeIfAbsent(
+							names.substring(slash + 1, end),
+							k -> new HashSet<>()).add(
+							names.substring(start, slash));
+					journalLines++;
+				}
+			}
+		}
+	}
+
+	private Path journalFile() {
+		return checkpointFile.resolveSibling(checkpointFile.getFileName()
+				+ ".maildir");
+	}
+
+	/**
+	 * Set how many trained messages go between two checkpoints.
+	 */
+	public void setCheckpointInterval(int messages) {
+		if (messages < 1) {
+			throw new IllegalArgumentException(
+					"Checkpoint interval must be positive: " + messages);
+		}
+		this.checkpointInterval = messages;
+	}
+
+	/**
+	 * In follow mode the last message of an mbox is only trained on once it
+	 * ends with a blank line, because a mail delivery agent may still be
+	 * appending to it. Otherwise the end of the file ends the last message.
+	 */
+	public void setFollow(boolean follow) {
+		this.follow = follow;
+	}
+
+	/**
+	 * Train on the messages of an mbox file that have not been read yet.
+	 *
+	 * @return the number of messages read
+	 */
+	public int ingestMbox(Path mbox) throws IOException {
+		String source = "mbox." + mbox.toAbsolutePath();
+		long start = Long.parseLong(positions.getProperty(source, "0"));
+		int count = 0;
+		try (FileChannel channel = FileChannel.open(mbox,
+				StandardOpenOption.READ)) {
+			if (channel.size() < start) {
+				throw new IOException("mbox " + mbox + " is shorter than its "
+						+ "checkpoint; it was truncated or replaced");
+			}
+			channel.position(start);
+			MboxLines lines = new MboxLines(Channels.newInputStream(channel),
+					start);
+			long messageStart = -1;
+			length = 0;
+			while (lines.next()) {
+				if (lines.isFromLine()) {
+					if (messageStart >= 0) {
+						trainMbox(source, Long.toString(messageStart),
+								lines.offset());
+						count++;
+					}
+					messageStart = lines.offset();
+					length = 0;
+				} else if (messageStart >= 0) {
+					lines.appendUnquoted(this);
+				}
+			}
+			if (messageStart >= 0 && (!follow || endsWithBlankLine())) {
+				trainMbox(source, Long.toString(messageStart), lines.offset());
+				count++;
+			}
+		}
+		checkpoint();
+		return count;
+	}
+
+	/**
+	 * Train on the messages of a maildir that have not been read yet, from
+	 * its new and cur folders, or from the directory itself when it has
+	 * neither. Messages are read in order of their unique names, which start
+	 * with the delivery time. Every message whose name has not been read
+	 * before is read, so a message that arrives late with an older name is
+	 * not missed. Only the names still in the maildir are remembered.
+	 *
+	 * @return the number of messages read
+	 */
+	public int ingestMaildir(Path maildir) throws IOException {
+		String source = maildir.toAbsolutePath().toString();
+		Set<String> read = maildirNames.computeIfAbsent(source,
+				k -> new HashSet<>());
+		List<Path> files = new ArrayList<>();
+		boolean standard = false;
+		for (String sub : new String[] { "new", "cur" }) {
+			Path dir = maildir.resolve(sub);
+			if (Files.isDirectory(dir)) {
+				standard = true;
+				list(dir, files);
+			}
+		}
+		if (!standard) {
+			list(maildir, files);
+		}
+		Collections.sort(files, (a, b) -> key(a).compareTo(key(b)));
+
+		int count = 0;
+		Set<String> present = new HashSet<>();
+		for (Path f : files) {
+			String key = key(f);
+			present.add(key);
+			if (read.contains(key)) {
+				continue;
+			}
+			try (InputStream in = Files.newInputStream(f)) {
+				length = 0;
+				readFully(in);
+			}
+			trainMaildir(source, read, key);
+			count++;
+		}
+		// a deleted message cannot come back, so its name can be forgotten
+		read.retainAll(present);
+		checkpoint();
+		return count;
+	}
+
+	private static void list(Path dir, List<Path> files) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					files.add(p);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The unique name of a maildir message, without the flags that change
+	 * when the message moves from new to cur.
+	 */
+	private static String key(Path f) {
+		String name = f.getFileName().toString();
+		int colon = name.indexOf(':');
+		return colon < 0 ? name : name.substring(0, colon);
+	}
+
+	/**
+	 * Train on the mbox message in the buffer and advance the position of the
+	 * source to the given end of the message.
+	 */
+	private void trainMbox(String source, String key, long end)
+			throws IOException {
+		train(key);
+		positions.setProperty(source, Long.toString(end));
+		trained();
+	}
+
+	/**
+	 * Train on the maildir message in the buffer and add its name to those
+	 * read from the maildir.
+	 */
+	private void trainMaildir(String maildir, Set<String> read, String key)
+			throws IOException {
+		train(key);
+		read.add(key);
+		unsavedNames.add(key + "/" + maildir);
+		trained();
+	}
+
+	private void train(String key) throws IOException {
+		Label label = labeler.label(key, message, length);
+		if (label == Label.SPAM) {
+			classifier.addSpamFile(new ByteArrayInputStream(message, 0, length),
+					key);
+		} else if (label == Label.HAM) {
+			classifier.addHamFile(new ByteArrayInputStream(message, 0, length),
+					key);
+		}
+	}
+
+	private void trained() throws IOException {
+		if (++sinceCheckpoint >= checkpointInterval) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Save the model and then the read positions, if checkpointing is on.
+	 */
+	public void checkpoint() throws IOException {
+		sinceCheckpoint = 0;
+		if (checkpointFile == null) {
+			unsavedNames.clear();
+			return;
+		}
+		if (modelFile != null) {
+			classifier.save(modelFile);
+		}
+		saveNames();
+		Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName()
+				+ ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			positions.store(out, "MailboxIngester read positions");
+		}
+		replace(tmp, checkpointFile);
+	}
+
+	/**
+	 * Append the names read since the last checkpoint to the journal, or
+	 * rewrite it with only the names still remembered once the forgotten ones
+	 * make up more than half of it.
+	 */
+	private void saveNames() throws IOException {
+		long live = 0;
+		for (Set<String> names : maildirNames.values()) {
+			live += names.size();
+		}
+		Path journal = journalFile();
+		if (rewriteJournal || journalLines + unsavedNames.size() > 2 * live) {
+			Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+			try (Writer out = Files.newBufferedWriter(tmp,
+					StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, Set<String>> e : maildirNames.entrySet()) {
+					for (String name : e.getValue()) {
+						out.write(name + "/" + e.getKey() + "\n");
+					}
+				}
+			}
+			replace(tmp, journal);
+			journalLines = live;
+			rewriteJournal = false;
+		} else if (!unsavedNames.isEmpty()) {
+			try (Writer out = Files.newBufferedWriter(journal,
+					StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND)) {
+				for (String line : unsavedNames) {
+					out.write(line + "\n");
+				}
+			}
+			journalLines += unsavedNames.size();
+		}
+		unsavedNames.clear();
+	}
+
+	private static void replace(Path tmp, Path target) throws IOException {
+		try {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private boolean endsWithBlankLine() {
+		return length >= 2 && message[length - 1] == '\n'
+				&& message[length - 2] == '\n' || length == 1
+				&& message[0] == '\n';
+	}
+
+	private void append(byte[] b, int off, int len) {
+		if (length + len > message.length) {
+			message = Arrays.copyOf(message,
+					Math.max(length + len, message.length * 2));
+		}
+		System.arraycopy(b, off, message, length, len);
+		length += len;
+	}
+
+	private void readFully(InputStream in) throws IOException {
+		while (true) {
+			if (length == message.length) {
+				message = Arrays.copyOf(message, length * 2);
+			}
+			int n = in.read(message, length, message.length - length);
+			if (n < 0) {
+				return;
+			}
+			length += n;
+		}
+	}
+
+	/**
+	 * Reads an mbox one line at a time, keeping track of byte offsets.
+	 */
+	private static final class MboxLines {
+		private final InputStream in;
+		private final byte[] buf = new byte[1 << 16];
+		private int pos;
+		private int limit;
+		private byte[] line = new byte[1024];
+		private int lineLength;
+		private long lineOffset;
+		private long nextOffset;
+		private boolean previousBlank = true;
+		private boolean blank = true;
+
+		MboxLines(InputStream in, long offset) {
+			this.in = in;
+			this.nextOffset = offset;
+		}
+
+		boolean next() throws IOException {
+			previousBlank = blank;
+			lineOffset = nextOffset;
+			lineLength = 0;
+			int c;
+			while ((c = read()) >= 0) {
+				if (lineLength == line.length) {
+					line = Arrays.copyOf(line, lineLength * 2);
+				}
+				line[lineLength++] = (byte) c;
+				if (c == '\n') {
+					break;
+				}
+			}
+			nextOffset += lineLength;
+			blank = lineLength == 1 || lineLength == 2 && line[0] == '\r';
+			return lineLength > 0;
+		}
+
+		private int read() throws IOException {
+			if (pos == limit) {
+				pos = 0;
+				limit = Math.max(0, in.read(buf, 0, buf.length));
+				if (limit == 0) {
+					return -1;
+				}
+			}
+			return buf[pos++] & 0xff;
+		}
+
+		/**
+		 * The byte offset of the current line, or of the end of the file
+		 * after the last line.
+		 */
+		long offset() {
+			return lineOffset;
+		}
+
+		/**
+		 * A "From " line after a blank line (or at the start of the file)
+		 * begins a new message.
+		 */
+		boolean isFromLine() {
+			return previousBlank && startsWith(0, FROM);
+		}
+
+		private boolean startsWith(int from, byte[] prefix) {
+			if (lineLength - from < prefix.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (line[from + i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Append the current line to the message, removing one level of
+		 * mboxrd quoting from a ">From " line.
+		 */
+		void appendUnquoted(MailboxIngester target) {
+			int start = 0;
+			while (start < lineLength && line[start] == '>') {
+				start++;
+			}
+			if (start > 0 && startsWith(start, FROM)) {
+				target.append(line, 1, lineLength - 1);
+			} else {
+				target.append(line, 0, lineLength);
+			}
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package bayes.classifier.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The words and counts of a saved model, read in place from the mapped
+ * {@link ModelSnapshot} file. Nothing is copied when it is loaded: a word is
+ * found by a binary search over the sorted word block, comparing the UTF-8
+ * bytes of the file with the chars of the token, and its score is computed
+ * from the count columns. Processes that load the same file share its pages
+ * through the page cache.
+ * <p>
+ * The table is read-only. {@link SpamClassifier} turns it into a
+ * {@link Vocabulary} on the heap with {@link #toVocabulary()} before it
+ * changes the counts or needs the words themselves. Lookups only use
+ * absolute reads of the buffers, so any number of threads can score with it.
+ */
+final class MappedVocabulary implements FeatureTable {
+	private final int size;
+	private final int maxCount;
+	private final IntBuffer spamCounts;
+	private final IntBuffer hamCounts;
+	/** Where each word starts in the word block, and where the last ends. */
+	private final IntBuffer offsets;
+	private final ByteBuffer words;
+
+	/**
+	 * @param size
+	 *            the number of words
+	 * @param maxCount
+	 *            the largest count of the model the file was saved from
+	 * @param columns
+	 *            the spam, ham and offset columns, as size, size and size + 1
+	 *            ints
+	 * @param words
+	 *            the UTF-8 bytes of all the words, in sorted order
+	 */
+	MappedVocabulary(int size, int maxCount, IntBuffer columns, ByteBuffer words) {
+		this.size = size;
+		this.maxCount = maxCount;
+		columns.position(0).limit(size);
+		this.spamCounts = columns.slice();
+		columns.position(size).limit(2 * size);
+		this.hamCounts = columns.slice();
+		columns.position(2 * size).limit(3 * size + 1);
+		this.offsets = columns.slice();
+		this.words = words;
+	}
+
+	@Override
+	public int find(String word) {
+		return find(word.toCharArray(), word.length(), 0);
+	}
+
+	/**
+	 * Binary search for the word; the hash code is not needed.
+	 */
+	@Override
+	public int find(char[] buf, int len, int h) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(mid, buf, len);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return spamCounts.get(mid) == 0 && hamCounts.get(mid) == 0 ? -1
+						: mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare the word with the given id to the given chars in the order of
+	 * {@link String#compareTo(String)}, decoding its UTF-8 bytes into UTF-16
+	 * chars as it goes.
+	 */
+	private int compare(int id, char[] buf, int len) {
+		int p = offsets.get(id);
+		int end = offsets.get(id + 1);
+		int k = 0;
+		while (p < end) {
+			int b = words.get(p) & 0xFF;
+			int c;
+			if (b < 0x80) {
+				c = b;
+				p += 1;
+			} else if (b < 0xE0) {
+				c = (b & 0x1F) << 6 | words.get(p + 1) & 0x3F;
+				p += 2;
+			} else if (b < 0xF0) {
+				c = (b & 0x0F) << 12 | (words.get(p + 1) & 0x3F) << 6
+						| words.get(p + 2) & 0x3F;
+				p += 3;
+			} else {
+				c = (b & 0x07) << 18 | (words.get(p + 1) & 0x3F) << 12
+						| (words.get(p + 2) & 0x3F) << 6 | words.get(p + 3)
+						& 0x3F;
+				p += 4;
+			}
+			if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				if (k == len) {
+					return 1;
+				}
+				char high = Character.highSurrogate(c);
+				if (high != buf[k]) {
+					return high - buf[k];
+				}
+				k++;
+				c = Character.lowSurrogate(c);
+			}
+			if (k == len) {
+				return 1;
+			}
+			if (c != buf[k]) {
+				return c - buf[k];
+			}
+			k++;
+		}
+		return k == len ? 0 : -1;
+	}
+
+	@Override
+	public int add(char[] buf, int len, int h) {
+		throw new UnsupportedOperationException("Mapped model is read-only");
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int spamCount(int id) {
+		return spamCounts.get(id);
+	}
+
+	@Override
+	public int hamCount(int id) {
+		return hamCounts.get(id);
+	}
+
+	@Override
+	public int spamCount(String word) {
+		int id = find(word);
+		return id < 0 ? 0 : spamCounts.get(id);
+	}
+
+	@Override
+	public int hamCount(String word) {
+		int id = find(word);
+		return id < 0 ? 0 : hamCounts.get(id);
+	}
+
+	@Override
+	public int maxCount() {
+		return maxCount;
+	}
+
+	/**
+	 * Scored like {@link Vocabulary#prob(int)}, from the counts.
+	 */
+	@Override
+	public double prob(int id) {
+		int spam = spamCounts.get(id);
+		int ham = hamCounts.get(id);
+		if (spam == 0 && ham == 0) {
+			return 0.5;
+		} else if (ham == 0) {
+			return 0.95;
+		} else if (spam == 0) {
+			return 0.05;
+		}
+		return (double) spam / (spam + ham);
+	}
+
+	@Override
+	public double logOdds(int id) {
+		int spam = spamCounts.get(id);
+		int ham = hamCounts.get(id);
+		if (spam == 0 && ham == 0) {
+			return 0;
+		} else if (ham == 0) {
+			return Vocabulary.LOG_ODDS_CLAMP;
+		} else if (spam == 0) {
+			return -Vocabulary.LOG_ODDS_CLAMP;
+		}
+		return Math.log((double) spam / ham);
+	}
+
+	@Override
+	public void addSpam(int id, int n) {
+		throw new UnsupportedOperationException("Mapped model is read-only");
+	}
+
+	@Override
+	public void addHam(int id, int n) {
+		throw new UnsupportedOperationException("Mapped model is read-only");
+	}
+
+	@Override
+	public void addAll(FeatureTable other) {
+		throw new UnsupportedOperationException("Mapped model is read-only");
+	}
+
+	/**
+	 * A copy on the heap, which has its own counts.
+	 */
+	@Override
+	public FeatureTable copy() {
+		return toVocabulary();
+	}
+
+	@Override
+	public FeatureTable empty() {
+		return new Vocabulary();
+	}
+
+	/**
+	 * The size of the mapped columns, which are in the page cache rather than
+	 * on the heap.
+	 */
+	@Override
+	public long sizeInBytes() {
+		return 4L * (3 * size + 1) + words.capacity();
+	}
+
+	/**
+	 * Build a {@link Vocabulary} on the heap with the same words and counts.
+	 */
+	Vocabulary toVocabulary() {
+		Vocabulary v = new Vocabulary(size);
+		ByteBuffer in = words.duplicate();
+		byte[] word = new byte[64];
+		for (int i = 0; i < size; i++) {
+			int start = offsets.get(i);
+			int length = offsets.get(i + 1) - start;
+			if (word.length < length) {
+				word = new byte[Math.max(length, word.length * 2)];
+			}
+			in.position(start);
+			in.get(word, 0, length);
+			int id = v.add(new String(word, 0, length, StandardCharsets.UTF_8));
+			v.addSpam(id, spamCounts.get(i));
+			v.addHam(id, hamCounts.get(i));
+		}
+		return v;
+	}
+}
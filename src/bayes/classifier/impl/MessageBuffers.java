@@ -0,0 +1,187 @@
+package bayes.classifier.impl;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread state reused by every message a thread scores or trains on, so
+ * that reading a message does not allocate once the buffers have grown to fit
+ * the vocabulary.
+ * <p>
+ * Distinct words are tracked by stamping their vocabulary id with a number
+ * that is unique to the current message, so forgetting the words of the
+ * previous message costs nothing. When only the most interesting words of a
+ * message are scored, they are kept in a fixed-size min-heap of ids keyed by
+ * how far each word is from neutral. The buffers also hold the byte limit
+ * of the current message and what the scoring of the last message ran into.
+ */
+final class MessageBuffers {
+	private static final ThreadLocal<MessageBuffers> BUFFERS = new ThreadLocal<MessageBuffers>() {
+		@Override
+		protected MessageBuffers initialValue() {
+			return new MessageBuffers();
+		}
+	};
+
+	private Tokenizer tokenizer;
+	private Object tokenizerFactory;
+	private int[] stamps = new int[1024];
+	private int stamp;
+	private int[] heapIds = new int[16];
+	private double[] heapKeys = new double[16];
+	private int heapSize;
+	private int heapCapacity;
+	private final LimitedInputStream limited = new LimitedInputStream();
+	private int tokenCount;
+	private int limitsHit;
+
+	private MessageBuffers() {
+	}
+
+	/**
+	 * The buffers of the calling thread.
+	 */
+	static MessageBuffers get() {
+		return BUFFERS.get();
+	}
+
+	/**
+	 * The tokenizer of the calling thread for the given factory. It is kept
+	 * for as long as this thread keeps asking for the same factory.
+	 */
+	Tokenizer tokenizer(Supplier<? extends Tokenizer> factory) {
+		if (tokenizerFactory != factory) {
+			tokenizer = factory.get();
+			tokenizerFactory = factory;
+		}
+		return tokenizer;
+	}
+
+	/**
+	 * The stream of the calling thread that reads the given message up to a
+	 * byte limit. Reset it with a null stream when the message is done.
+	 */
+	LimitedInputStream limit(InputStream in, long maxBytes, boolean headAndTail) {
+		return limited.reset(in, maxBytes, headAndTail);
+	}
+
+	/**
+	 * Record how many tokens the last scored message had and which
+	 * {@link ScoreResult.Limit limits} it hit, as a bit set by ordinal.
+	 */
+	void scored(int tokens, int limits) {
+		this.tokenCount = tokens;
+		this.limitsHit = limits;
+	}
+
+	int tokenCount() {
+		return tokenCount;
+	}
+
+	int limitsHit() {
+		return limitsHit;
+	}
+
+	/**
+	 * Start a new message against a vocabulary of the given size.
+	 */
+	void startMessage(int vocabularySize) {
+		if (stamps.length < vocabularySize) {
+			stamps = new int[Math.max(vocabularySize, stamps.length * 2)];
+			stamp = 0;
+		}
+		if (++stamp == 0) {
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * Mark the word with the given id as seen in the current message.
+	 * 
+	 * @return true if this is the first time the word is seen in the message
+	 */
+	boolean firstSighting(int id) {
+		if (id >= stamps.length) {
+			stamps = Arrays.copyOf(stamps, Math.max(id + 1, stamps.length * 2));
+		}
+		if (stamps[id] == stamp) {
+			return false;
+		}
+		stamps[id] = stamp;
+		return true;
+	}
+
+	/**
+	 * Empty the heap of interesting words and let it hold at most the given
+	 * number of them.
+	 */
+	void startHeap(int capacity) {
+		if (heapIds.length < capacity) {
+			heapIds = new int[capacity];
+			heapKeys = new double[capacity];
+		}
+		heapCapacity = capacity;
+		heapSize = 0;
+	}
+
+	/**
+	 * Keep the word with the given id if it is among the most interesting
+	 * words offered so far. A full heap drops its least interesting word for a
+	 * strictly more interesting one, so among equally interesting words the
+	 * first ones seen are kept.
+	 * 
+	 * @param interest
+	 *            how far the word is from neutral
+	 */
+	void offer(int id, double interest) {
+		if (heapSize < heapCapacity) {
+			int i = heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heapKeys[parent] <= interest) {
+					break;
+				}
+				heapIds[i] = heapIds[parent];
+				heapKeys[i] = heapKeys[parent];
+				i = parent;
+			}
+			heapIds[i] = id;
+			heapKeys[i] = interest;
+		} else if (heapCapacity > 0 && interest > heapKeys[0]) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+					child++;
+				}
+				if (heapKeys[child] >= interest) {
+					break;
+				}
+				heapIds[i] = heapIds[child];
+				heapKeys[i] = heapKeys[child];
+				i = child;
+			}
+			heapIds[i] = id;
+			heapKeys[i] = interest;
+		}
+	}
+
+	/**
+	 * The number of words in the heap.
+	 */
+	int heapSize() {
+		return heapSize;
+	}
+
+	/**
+	 * The id of the i-th word in the heap, in no particular order.
+	 */
+	int heapId(int i) {
+		return heapIds[i];
+	}
+}
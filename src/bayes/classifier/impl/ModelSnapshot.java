@@ -0,0 +1,214 @@
+package bayes.classifier.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The binary file format of a saved {@link SpamClassifier}.
+ * <p>
+ * All numbers are big-endian. After the header come the words in sorted
+ * order, stored column-wise so that a loaded model can score straight from
+ * the file:
+ *
+ * <pre>
+ * int      magic "SPAM"
+ * int      version 3
+ * double   threshold
+ * int      number of spam messages
+ * int      number of ham messages
+ * int      number of words n
+ * int      the largest count the model has had
+ * int[n]   spam count of each word
+ * int[n]   ham count of each word
+ * int[n+1] offset of each word in the word block, then its length
+ * byte[]   the UTF-8 bytes of all the words
+ * </pre>
+ *
+ * A model with {@link HashedFeatureTable hashed features} has no words and is
+ * saved as version 2, with the bucket counts in place of the words:
+ *
+ * <pre>
+ * int    magic "SPAM"
+ * int    version 2
+ * double threshold
+ * int    number of spam messages
+ * int    number of ham messages
+ * int    number of bits of the bucket index
+ * int[n] spam count of each bucket, n = 2^bits
+ * int[n] ham count of each bucket
+ * </pre>
+ *
+ * Loading a model that keeps words only maps the file and checks its header:
+ * the loaded model is a {@link MappedVocabulary} that looks words up in the
+ * mapping, so it is ready to score at once whatever its size, and processes
+ * that load the same file share it through the page cache. The buckets of a
+ * hashed model are read onto the heap in bulk.
+ */
+final class ModelSnapshot {
+	static final int MAGIC = 0x5350414D;
+	static final int VERSION = 3;
+	static final int VERSION_HASHED = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+
+	final FeatureTable features;
+	final int spamMessages;
+	final int hamMessages;
+	final double threshold;
+
+	ModelSnapshot(FeatureTable features, int spamMessages, int hamMessages,
+			double threshold) {
+		this.features = features;
+		this.spamMessages = spamMessages;
+		this.hamMessages = hamMessages;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Write this snapshot to the given file. The data goes to a temporary file
+	 * that then replaces the target, so readers never see a partial model.
+	 */
+	void write(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			if (this.features instanceof HashedFeatureTable) {
+				out.writeInt(VERSION_HASHED);
+				writeHeader(out);
+				writeBuckets(out, (HashedFeatureTable) this.features);
+			} else {
+				out.writeInt(VERSION);
+				writeHeader(out);
+				writeWords(out, this.features instanceof MappedVocabulary
+						? ((MappedVocabulary) this.features).toVocabulary()
+						: (Vocabulary) this.features);
+			}
+		}
+		try {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeDouble(this.threshold);
+		out.writeInt(this.spamMessages);
+		out.writeInt(this.hamMessages);
+	}
+
+	private static void writeWords(DataOutputStream out, Vocabulary v)
+			throws IOException {
+		int n = v.size();
+		Integer[] order = new Integer[n];
+		for (int id = 0; id < n; id++) {
+			order[id] = id;
+		}
+		Arrays.sort(order, (x, y) -> v.word(x).compareTo(v.word(y)));
+		byte[][] utf8 = new byte[n][];
+		for (int i = 0; i < n; i++) {
+			utf8[i] = v.word(order[i]).getBytes(StandardCharsets.UTF_8);
+		}
+
+		out.writeInt(n);
+		out.writeInt(v.maxCount());
+		for (int i = 0; i < n; i++) {
+			out.writeInt(v.spamCount(order[i]));
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeInt(v.hamCount(order[i]));
+		}
+		int offset = 0;
+		for (int i = 0; i < n; i++) {
+			out.writeInt(offset);
+			offset += utf8[i].length;
+		}
+		out.writeInt(offset);
+		for (int i = 0; i < n; i++) {
+			out.write(utf8[i]);
+		}
+	}
+
+	private static void writeBuckets(DataOutputStream out, HashedFeatureTable t)
+			throws IOException {
+		out.writeInt(t.bits());
+		for (int id = 0; id < t.size(); id++) {
+			out.writeInt(t.spamCount(id));
+		}
+		for (int id = 0; id < t.size(); id++) {
+			out.writeInt(t.hamCount(id));
+		}
+	}
+
+	/**
+	 * Read a snapshot. The words stay in the mapped file, which the returned
+	 * table keeps mapped for as long as it is in use; only their number and
+	 * the size of the word block are checked, so a corrupt word block is
+	 * found when a lookup reads it.
+	 */
+	static ModelSnapshot read(Path path) throws IOException {
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+			throw new IOException("Not a spam classifier model: " + path);
+		}
+		int version = buf.getInt();
+		if (version != VERSION && version != VERSION_HASHED) {
+			throw new IOException("Unsupported model version " + version
+					+ " in " + path);
+		}
+		double threshold = buf.getDouble();
+		int spamMessages = buf.getInt();
+		int hamMessages = buf.getInt();
+		if (version == VERSION_HASHED) {
+			return new ModelSnapshot(readBuckets(buf, path), spamMessages,
+					hamMessages, threshold);
+		}
+		if (buf.remaining() < 8) {
+			throw new IOException("Truncated model: " + path);
+		}
+		int n = buf.getInt();
+		int maxCount = buf.getInt();
+		if (n < 0 || buf.remaining() - 4L < 12L * n) {
+			throw new IOException("Truncated model: " + path);
+		}
+		IntBuffer columns = buf.asIntBuffer();
+		int wordBytes = columns.get(3 * n);
+		buf.position(buf.position() + 4 * (3 * n + 1));
+		if (wordBytes != buf.remaining()) {
+			throw new IOException("Corrupt model: " + path);
+		}
+		MappedVocabulary v = new MappedVocabulary(n, maxCount, columns,
+				buf.slice());
+		return new ModelSnapshot(v, spamMessages, hamMessages, threshold);
+	}
+
+	private static HashedFeatureTable readBuckets(MappedByteBuffer buf,
+			Path path) throws IOException {
+		int bits = buf.getInt();
+		if (bits < 1 || bits > 30 || buf.remaining() / 8 < 1 << bits) {
+			throw new IOException("Truncated model: " + path);
+		}
+		int[] spam = new int[1 << bits];
+		int[] ham = new int[1 << bits];
+		buf.asIntBuffer().get(spam).get(ham);
+		HashedFeatureTable t = new HashedFeatureTable(bits);
+		t.setCounts(spam, ham);
+		return t;
+	}
+}
@@ -0,0 +1,106 @@
+package bayes.classifier.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The score of one message along with the {@link ScoringLimits} it hit. A
+ * message that hit a limit was scored on only part of its input, so callers
+ * that act on the verdict can treat such scores with more care, for example
+ * by sending the message to a slower full scan.
+ *
+ * @see SpamClassifier#scoreMessage(java.io.InputStream)
+ */
+public final class ScoreResult {
+	/** The limits a message can hit. */
+	public enum Limit {
+		/** Bytes past the byte limit were not scored. */
+		BYTES,
+		/** Reading stopped at the token limit. */
+		TOKENS,
+		/** Reading stopped at the distinct token limit. */
+		DISTINCT_TOKENS,
+		/** Tokens longer than the token length limit were skipped. */
+		TOKEN_LENGTH
+	}
+
+	private static final Limit[] LIMITS = Limit.values();
+
+	private final double score;
+	private final boolean spam;
+	private final int tokens;
+	private final int limitsHit;
+
+	/**
+	 * @param limitsHit
+	 *            a bit set of the hit limits, by ordinal
+	 */
+	ScoreResult(double score, boolean spam, int tokens, int limitsHit) {
+		this.score = score;
+		this.spam = spam;
+		this.tokens = tokens;
+		this.limitsHit = limitsHit;
+	}
+
+	/**
+	 * The score of the message, as
+	 * {@link SpamClassifier#probSpamForMessage(java.io.InputStream)} returns
+	 * it.
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Return true if the score is above the threshold of the classifier.
+	 */
+	public boolean isSpam() {
+		return spam;
+	}
+
+	/**
+	 * The number of tokens read, counting repeated, unknown and skipped ones.
+	 */
+	public int getTokenCount() {
+		return tokens;
+	}
+
+	/**
+	 * Return true if any limit was hit, so that part of the message was not
+	 * scored.
+	 */
+	public boolean isTruncated() {
+		return limitsHit != 0;
+	}
+
+	/**
+	 * Return true if the given limit was hit.
+	 */
+	public boolean isTruncatedBy(Limit limit) {
+		return (limitsHit & 1 << limit.ordinal()) != 0;
+	}
+
+	/**
+	 * The limits that were hit, or an empty set.
+	 */
+	public Set<Limit> getLimitsHit() {
+		if (limitsHit == 0) {
+			return Collections.emptySet();
+		}
+		EnumSet<Limit> hit = EnumSet.noneOf(Limit.class);
+		for (Limit l : LIMITS) {
+			if (isTruncatedBy(l)) {
+				hit.add(l);
+			}
+		}
+		return Collections.unmodifiableSet(hit);
+	}
+
+	@Override
+	public String toString() {
+		return "ScoreResult[score=" + score + ", spam=" + spam + ", tokens="
+				+ tokens + (limitsHit == 0 ? "" : ", truncatedBy="
+				+ getLimitsHit()) + "]";
+	}
+}
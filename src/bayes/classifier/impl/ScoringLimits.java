@@ -0,0 +1,138 @@
+package bayes.classifier.impl;
+
+/**
+ * Caps on how much of a message {@link SpamClassifier} reads and scores, so
+ * that a huge attachment or a flood of tokens cannot stall a scoring thread
+ * or fill its buffers. Each limit is 0 when it is off. A message that hits a
+ * limit is scored on the part that was read, and
+ * {@link SpamClassifier#scoreMessage(java.io.InputStream)} reports which
+ * limits were hit in its {@link ScoreResult}.
+ * <p>
+ * Limits are immutable; start from {@link #NONE} and turn on the ones
+ * wanted:
+ *
+ * <pre>
+ * classifier.setScoringLimits(ScoringLimits.NONE.withMaxBytes(1 &lt;&lt; 20)
+ * 		.withHeadAndTail(true).withMaxTokenLength(64));
+ * </pre>
+ */
+public final class ScoringLimits {
+	/** No limits: every message is read and scored whole. */
+	public static final ScoringLimits NONE = new ScoringLimits(0, 0, 0, 0,
+			false);
+
+	private final long maxBytes;
+	private final int maxTokens;
+	private final int maxDistinctTokens;
+	private final int maxTokenLength;
+	private final boolean headAndTail;
+
+	private ScoringLimits(long maxBytes, int maxTokens, int maxDistinctTokens,
+			int maxTokenLength, boolean headAndTail) {
+		this.maxBytes = maxBytes;
+		this.maxTokens = maxTokens;
+		this.maxDistinctTokens = maxDistinctTokens;
+		this.maxTokenLength = maxTokenLength;
+		this.headAndTail = headAndTail;
+	}
+
+	private static int checkLimit(String name, int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("Maximum " + name
+					+ " must not be negative: " + n);
+		}
+		return n;
+	}
+
+	/**
+	 * Read at most the given number of bytes of each message. The rest of
+	 * the stream is left unread, unless {@link #withHeadAndTail(boolean)} is
+	 * on.
+	 */
+	public ScoringLimits withMaxBytes(long n) {
+		if (n < 0) {
+			throw new IllegalArgumentException(
+					"Maximum bytes must not be negative: " + n);
+		}
+		return new ScoringLimits(n, maxTokens, maxDistinctTokens,
+				maxTokenLength, headAndTail);
+	}
+
+	/**
+	 * Stop reading a message after the given number of tokens, counting
+	 * repeated and unknown words.
+	 */
+	public ScoringLimits withMaxTokens(int n) {
+		return new ScoringLimits(maxBytes, checkLimit("tokens", n),
+				maxDistinctTokens, maxTokenLength, headAndTail);
+	}
+
+	/**
+	 * Stop reading a message once the given number of distinct known words
+	 * have been scored.
+	 */
+	public ScoringLimits withMaxDistinctTokens(int n) {
+		return new ScoringLimits(maxBytes, maxTokens, checkLimit(
+				"distinct tokens", n), maxTokenLength, headAndTail);
+	}
+
+	/**
+	 * Skip tokens longer than the given number of chars, such as encoded
+	 * attachments. The tokenizer keeps only the start of such a token, so a
+	 * long one does not grow its buffer.
+	 */
+	public ScoringLimits withMaxTokenLength(int n) {
+		return new ScoringLimits(maxBytes, maxTokens, maxDistinctTokens,
+				checkLimit("token length", n), headAndTail);
+	}
+
+	/**
+	 * With a byte limit, score the first and the last half of the allowed
+	 * bytes of a long message instead of only its start, since spam often
+	 * hides its payload after a long innocent looking body. The middle is
+	 * skipped without reading it when the length of the stream is known, as
+	 * for files; otherwise the end is kept in a ring buffer of half the
+	 * allowed bytes while the stream is read, so the whole stream is read but
+	 * no more than the limit is scored.
+	 */
+	public ScoringLimits withHeadAndTail(boolean headAndTail) {
+		return new ScoringLimits(maxBytes, maxTokens, maxDistinctTokens,
+				maxTokenLength, headAndTail);
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getMaxTokens() {
+		return maxTokens;
+	}
+
+	public int getMaxDistinctTokens() {
+		return maxDistinctTokens;
+	}
+
+	public int getMaxTokenLength() {
+		return maxTokenLength;
+	}
+
+	public boolean isHeadAndTail() {
+		return headAndTail;
+	}
+
+	/**
+	 * Return true if no limit is on.
+	 */
+	public boolean isNone() {
+		return maxBytes == 0 && maxTokens == 0 && maxDistinctTokens == 0
+				&& maxTokenLength == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ScoringLimits[maxBytes=" + maxBytes + ", maxTokens="
+				+ maxTokens + ", maxDistinctTokens=" + maxDistinctTokens
+				+ ", maxTokenLength=" + maxTokenLength + ", headAndTail="
+				+ headAndTail + "]";
+	}
+}
@@ -0,0 +1,219 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trains a {@link SpamClassifier} on a corpus split across several worker
+ * JVMs.
+ * <p>
+ * The files of the spam and ham directories are dealt round-robin into one
+ * shard per worker. Each worker is a separate java process that trains a
+ * model on its shard and {@link SpamClassifier#save(Path) saves} it; the
+ * driver then loads the partial models and
+ * {@link SpamClassifier#merge(SpamClassifier) merges} them, which gives the
+ * same counts as training on the whole corpus in one process. The same saved
+ * models can be produced on other machines and merged with
+ * {@link SpamClassifier#mergeAll(Iterable)}.
+ * <p>
+ * Workers run with the default tokenizer; a tokenizer set on a classifier
+ * cannot be shipped to another JVM.
+ * <p>
+ * From the command line:
+ * 
+ * <pre>
+ * java bayes.classifier.impl.ShardedTrainer workers spamDir hamDir model
+ * </pre>
+ */
+public class ShardedTrainer {
+	private static final String WORKER = "--worker";
+
+	private final int workers;
+	private String classPath = System.getProperty("java.class.path");
+	private List<String> jvmOptions = Collections.emptyList();
+	private int hashedFeatureBits;
+	private Path workDirectory;
+
+	/**
+	 * @param workers
+	 *            the number of worker processes
+	 */
+	public ShardedTrainer(int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Need at least one worker: "
+					+ workers);
+		}
+		this.workers = workers;
+	}
+
+	/**
+	 * Set the class path of the worker JVMs. By default it is the class path
+	 * of this JVM.
+	 */
+	public void setClassPath(String classPath) {
+		this.classPath = classPath;
+	}
+
+	/**
+	 * Set extra options for the worker JVMs, such as "-Xmx2g".
+	 */
+	public void setJvmOptions(List<String> options) {
+		this.jvmOptions = new ArrayList<>(options);
+	}
+
+	/**
+	 * Train the workers with {@link SpamClassifier#setHashedFeatures(int)
+	 * hashed features} of the given number of bits, or 0 to keep every word.
+	 */
+	public void setHashedFeatures(int bits) {
+		this.hashedFeatureBits = bits;
+	}
+
+	/**
+	 * Set where the shard lists and partial models are written. By default a
+	 * temporary directory is created and deleted afterwards.
+	 */
+	public void setWorkDirectory(Path dir) {
+		this.workDirectory = dir;
+	}
+
+	/**
+	 * Train on every file in the given directories, spreading the work over
+	 * the worker processes, and return the merged model.
+	 */
+	public SpamClassifier train(Path spamDir, Path hamDir) throws IOException {
+		List<String> files = new ArrayList<>();
+		list(spamDir, "spam", files);
+		list(hamDir, "ham", files);
+		int shards = Math.max(1, Math.min(workers, files.size()));
+
+		Path dir = workDirectory != null ? Files.createDirectories(workDirectory)
+				: Files.createTempDirectory("shards");
+		List<Path> created = new ArrayList<>();
+		List<Process> processes = new ArrayList<>();
+		try {
+			List<Path> models = new ArrayList<>();
+			for (int shard = 0; shard < shards; shard++) {
+				List<String> lines = new ArrayList<>();
+				for (int i = shard; i < files.size(); i += shards) {
+					lines.add(files.get(i));
+				}
+				Path list = dir.resolve("shard-" + shard + ".txt");
+				Path model = dir.resolve("shard-" + shard + ".model");
+				Files.write(list, lines, StandardCharsets.UTF_8);
+				created.add(list);
+				created.add(model);
+				models.add(model);
+				processes.add(start(list, model));
+			}
+			for (int shard = 0; shard < shards; shard++) {
+				int exit = processes.get(shard).waitFor();
+				if (exit != 0) {
+					throw new IOException("Worker for shard " + shard
+							+ " failed with exit code " + exit);
+				}
+			}
+			return SpamClassifier.mergeAll(models);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while training");
+		} finally {
+			for (Process p : processes) {
+				p.destroy();
+			}
+			for (Path p : created) {
+				Files.deleteIfExists(p);
+			}
+			if (workDirectory == null) {
+				Files.deleteIfExists(dir);
+			}
+		}
+	}
+
+	private Process start(Path list, Path model) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+				.toString());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(classPath);
+		command.add(ShardedTrainer.class.getName());
+		command.add(WORKER);
+		command.add(list.toString());
+		command.add(model.toString());
+		command.add(Integer.toString(hashedFeatureBits));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/**
+	 * Add a "label path" line for every regular file in the directory, in a
+	 * stable order.
+	 */
+	private static void list(Path dir, String label, List<String> files)
+			throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					paths.add(p);
+				}
+			}
+		}
+		Collections.sort(paths);
+		for (Path p : paths) {
+			files.add(label + " " + p.toAbsolutePath());
+		}
+	}
+
+	/**
+	 * Train on the files listed in a shard file and save the model.
+	 */
+	static void work(Path list, Path model, int hashedFeatureBits)
+			throws IOException {
+		SpamClassifier c = new SpamClassifier();
+		c.setHashedFeatures(hashedFeatureBits);
+		for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+			int space = line.indexOf(' ');
+			boolean spam = line.substring(0, space).equals("spam");
+			Path file = Paths.get(line.substring(space + 1));
+			String name = file.getFileName().toString();
+			try (InputStream in = Files.newInputStream(file)) {
+				if (spam) {
+					c.addSpamFile(in, name);
+				} else {
+					c.addHamFile(in, name);
+				}
+			}
+		}
+		c.save(model);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 4 && args[0].equals(WORKER)) {
+			work(Paths.get(args[1]), Paths.get(args[2]),
+					Integer.parseInt(args[3]));
+			return;
+		}
+		if (args.length != 4) {
+			System.err.println("Usage: ShardedTrainer workers spamDir hamDir model");
+			System.exit(2);
+		}
+		long start = System.nanoTime();
+		ShardedTrainer trainer = new ShardedTrainer(Integer.parseInt(args[0]));
+		SpamClassifier model = trainer.train(Paths.get(args[1]),
+				Paths.get(args[2]));
+		model.save(Paths.get(args[3]));
+		System.out.println("Trained on " + model.getNumSpamMessages()
+				+ " spam and " + model.getNumHamMessages() + " ham messages in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
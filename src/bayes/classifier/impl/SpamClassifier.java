@@ -1,10 +1,15 @@
 package bayes.classifier.impl;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * @author jspacco
@@ -24,87 +29,805 @@ import java.util.*;
  */
 public class SpamClassifier {
 	// Put some instance variables here
-	private Map<String, Integer> spamMap = new HashMap<>();
-	private Map<String, Integer> hamMap = new HashMap<>();
-	private ArrayList<String> spamMessages = new ArrayList<String>();
-	private ArrayList<String> hamMessages = new ArrayList<String>();
+	private FeatureTable features = new Vocabulary();
+	private final AtomicInteger spamMessages = new AtomicInteger();
+	private final AtomicInteger hamMessages = new AtomicInteger();
 	private double Thres = 0;
+	private int trainingThreads = 1;
+	private Supplier<? extends Tokenizer> tokenizerFactory = WhitespaceTokenizer::new;
+	private boolean logSpaceScoring = false;
+	private boolean earlyExit = false;
+	private int maxInterestingTokens = 0;
+	private ScoringLimits scoringLimits = ScoringLimits.NONE;
+	private int maxWords = 0;
+	private ClassifierMetrics metrics;
+	private TrainingJournal journal;
+	private Path corpusCache;
+	private DecayWindow decay;
+
+	/** Early exit checks the verdict every this many + 1 distinct words. */
+	private static final int EARLY_EXIT_INTERVAL = 63;
+
+	/** The bits of the scoring limits a message hit. */
+	private static final int BYTES = 1 << ScoreResult.Limit.BYTES.ordinal();
+	private static final int TOKENS = 1 << ScoreResult.Limit.TOKENS.ordinal();
+	private static final int DISTINCT_TOKENS = 1 << ScoreResult.Limit.DISTINCT_TOKENS
+			.ordinal();
+	private static final int TOKEN_LENGTH = 1 << ScoreResult.Limit.TOKEN_LENGTH
+			.ordinal();
 
 	/**
-	 * Add the spam file to be read from the given input stream to our dataset.
+	 * Add the spam file to be read from the given input stream to our dataset,
+	 * counting it as one more spam message.
 	 * 
 	 * @param in
 	 *            The inputstream from which to read the spam file.
 	 */
 	public void addSpamFile(InputStream in) throws IOException {
-		Scanner scan = new Scanner(in);
-		Map<String, Integer> seen = new HashMap<>();
-		while (scan.hasNext()) {
-			String s = scan.next();
-			if (!seen.containsKey(s)) {
-				if (spamMap.containsKey(s)) {
-					int i = this.spamMap.get(s);
-					this.spamMap.put(s, i + 1);
-				} else {
-					this.spamMap.put(s, 1);
-				}
-				seen.put(s, 1);
-			}
-		}
+		addSpamFile(in, null);
 	}
 
 	/**
-	 * Add the ham file to be read from the given input stream to our dataset.
+	 * Add the spam file to be read from the given input stream to our dataset,
+	 * counting it as one more spam message, and record its source in the
+	 * {@link #setTrainingJournal(TrainingJournal) training journal}.
+	 * 
+	 * @param in
+	 *            The inputstream from which to read the spam file.
+	 * @param source
+	 *            where the message came from, such as its file name
+	 */
+	public void addSpamFile(InputStream in, String source) throws IOException {
+		countDocument(in, writableFeatures(), true);
+		countSpamMessage(source);
+	}
+
+	/**
+	 * Add the ham file to be read from the given input stream to our dataset,
+	 * counting it as one more ham message.
 	 * 
 	 * @param in
 	 *            The inputstream from which to read the ham file.
 	 */
 	public void addHamFile(InputStream in) throws IOException {
-		Scanner scan = new Scanner(in);
-		Map<String, Integer> seen = new HashMap<>();
-		while (scan.hasNext()) {
-			String s = scan.next();
-			if (!seen.containsKey(s)) {
-				if (hamMap.containsKey(s)) {
-					int i = this.hamMap.get(s);
-					this.hamMap.put(s, i + 1);
+		addHamFile(in, null);
+	}
+
+	/**
+	 * Add the ham file to be read from the given input stream to our dataset,
+	 * counting it as one more ham message, and record its source in the
+	 * {@link #setTrainingJournal(TrainingJournal) training journal}.
+	 * 
+	 * @param in
+	 *            The inputstream from which to read the ham file.
+	 * @param source
+	 *            where the message came from, such as its file name
+	 */
+	public void addHamFile(InputStream in, String source) throws IOException {
+		countDocument(in, writableFeatures(), false);
+		countHamMessage(source);
+	}
+
+	/**
+	 * Take a spam message that was trained on out of the model again: one
+	 * spam message less, and one count less for each of its words. Counts
+	 * never go below zero, and words left without counts are scored as
+	 * unknown. Removals are not recorded in the training journal.
+	 * 
+	 * @param in
+	 *            the message as it was trained
+	 */
+	public void removeSpamFile(InputStream in) throws IOException {
+		uncountDocument(in, true);
+	}
+
+	/**
+	 * Take a ham message that was trained on out of the model again, like
+	 * {@link #removeSpamFile(InputStream)}.
+	 * 
+	 * @param in
+	 *            the message as it was trained
+	 */
+	public void removeHamFile(InputStream in) throws IOException {
+		uncountDocument(in, false);
+	}
+
+	private void uncountDocument(InputStream in, boolean spam)
+			throws IOException {
+		advanceDueEpochs();
+		FeatureTable v = writableFeatures();
+		DecayWindow decay = this.decay;
+		MessageBuffers buffers = MessageBuffers.get();
+		Tokenizer tokens = buffers.tokenizer(this.tokenizerFactory);
+		buffers.startMessage(v.size());
+		tokens.reset(in);
+		try {
+			while (tokens.next()) {
+				int id = v.find(tokens.chars(), tokens.length(), tokens.hash());
+				if (id < 0 || !buffers.firstSighting(id)) {
+					continue;
+				}
+				if (spam) {
+					v.addSpam(id, -1);
 				} else {
-					this.hamMap.put(s, 1);
+					v.addHam(id, -1);
+				}
+				if (decay != null) {
+					decay.removeWord(tokens.chars(), tokens.length(),
+							tokens.hash(), spam);
 				}
-				seen.put(s, 1);
 			}
+		} finally {
+			tokens.reset(null);
+		}
+		(spam ? this.spamMessages : this.hamMessages).updateAndGet(n -> Math
+				.max(0, n - 1));
+		if (decay != null) {
+			decay.removeMessage(spam);
 		}
+		pruneEmptyWords();
 	}
 
 	/**
 	 * Add all the files in the given directory to our dataset as spam files.
 	 * 
-	 * <b>NOTE</b> This method can (and really should) call
-	 * {@link #addSpamFile(InputStream)}.
+	 * Every file is closed as soon as it has been read. Use a
+	 * {@link DirectoryIngester} to read subdirectories, filter the files or
+	 * get read statistics.
 	 * 
 	 * @param dir
 	 *            The directory from which to read the files
 	 */
 	public void addAllSpamFilesInDirectory(File dir) throws IOException {
-		for (File f : dir.listFiles()) {
-			this.addSpamFile(new FileInputStream(f));
-			this.spamMessages.add(f.getName());
-		}
+		new DirectoryIngester(this).addAllSpamFiles(dir.toPath());
 	}
 
 	/**
 	 * Add all the files in the given directory to our dataset as ham files.
 	 * 
-	 * <b>NOTE</b> This method can (and really should) call
-	 * {@link #addHamFile(InputStream)}.
+	 * Every file is closed as soon as it has been read. Use a
+	 * {@link DirectoryIngester} to read subdirectories, filter the files or
+	 * get read statistics.
 	 * 
 	 * @param dir
 	 *            The directory from which to read the files
 	 */
 	public void addAllHamFilesInDirectory(File dir) throws IOException {
-		for (File f : dir.listFiles()) {
-			this.addHamFile(new FileInputStream(f));
-			this.hamMessages.add(f.getName());
+		new DirectoryIngester(this).addAllHamFiles(dir.toPath());
+	}
+
+	/**
+	 * Set the number of worker threads used by
+	 * {@link #addAllSpamFilesInDirectory(File)},
+	 * {@link #addAllHamFilesInDirectory(File)} and {@link DirectoryIngester}.
+	 * With more than one thread the
+	 * files are split into shards, each worker counts its shard into a private
+	 * vocabulary and the partial counts are then summed into the model, which gives
+	 * exactly the same counts as training serially.
+	 * 
+	 * @param threads
+	 *            the number of worker threads; 1 (the default) trains serially
+	 */
+	public void setTrainingThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Need at least one training thread: " + threads);
+		}
+		this.trainingThreads = threads;
+	}
+
+	/**
+	 * Get the number of worker threads used to train on a directory.
+	 */
+	public int getTrainingThreads() {
+		return this.trainingThreads;
+	}
+
+	/**
+	 * Save the tokens of every directory trained on with
+	 * {@link #addAllSpamFilesInDirectory(File)},
+	 * {@link #addAllHamFilesInDirectory(File)} or a {@link DirectoryIngester}
+	 * in the given directory, and train from them instead of from the files
+	 * while the directory is unchanged. Replaying the tokens skips reading
+	 * and tokenizing, which speeds up retraining on the same corpus many
+	 * times over. Only a tokenizer with a {@link Tokenizer#cacheIdentity()
+	 * cache identity} is cached; with any other the files are always read.
+	 * 
+	 * @param dir
+	 *            the directory of the cache files, created if needed, or null
+	 *            (the default) for no cache
+	 */
+	public void setCorpusCache(Path dir) {
+		this.corpusCache = dir;
+	}
+
+	/**
+	 * Get the directory of the corpus cache, or null if there is none.
+	 */
+	public Path getCorpusCache() {
+		return this.corpusCache;
+	}
+
+	/**
+	 * Set the tokenizer used to split messages into words, both for training
+	 * and for scoring. Every thread that reads messages gets its own instance
+	 * from the given factory. The default splits on whitespace like
+	 * {@link Scanner} does.
+	 * 
+	 * @param factory
+	 *            creates a tokenizer for each reading thread
+	 */
+	public void setTokenizer(Supplier<? extends Tokenizer> factory) {
+		if (factory == null) {
+			throw new NullPointerException("factory");
+		}
+		this.tokenizerFactory = factory;
+	}
+
+	/**
+	 * Count every distinct word of the given message once into the spam or ham
+	 * counts of the given vocabulary.
+	 */
+	void countDocument(InputStream in, FeatureTable counts, boolean spam)
+			throws IOException {
+		ClassifierMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		FeatureTable epoch = null;
+		if (counts == this.features && this.decay != null) {
+			advanceDueEpochs();
+			epoch = this.decay.current();
+		}
+		MessageBuffers buffers = MessageBuffers.get();
+		Tokenizer tokens = buffers.tokenizer(this.tokenizerFactory);
+		buffers.startMessage(counts.size());
+		tokens.reset(in);
+		try {
+			while (tokens.next()) {
+				int id = counts.add(tokens.chars(), tokens.length(),
+						tokens.hash());
+				if (!buffers.firstSighting(id)) {
+					continue;
+				}
+				if (spam) {
+					counts.addSpam(id, 1);
+				} else {
+					counts.addHam(id, 1);
+				}
+				if (epoch != null) {
+					int e = epoch.add(tokens.chars(), tokens.length(),
+							tokens.hash());
+					if (spam) {
+						epoch.addSpam(e, 1);
+					} else {
+						epoch.addHam(e, 1);
+					}
+				}
+			}
+		} finally {
+			tokens.reset(null);
+		}
+		if (this.maxWords > 0 && counts instanceof Vocabulary) {
+			((Vocabulary) counts).pruneTo(this.maxWords);
+		}
+		if (metrics != null) {
+			metrics.trained(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Wait for a training shard, rethrowing whatever the worker threw.
+	 */
+	static <T> T waitFor(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while training");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Save the trained model and the threshold to the given file in a compact
+	 * binary format that {@link #load(Path)} reads back.
+	 * 
+	 * @param path
+	 *            the file to write; an existing file is replaced atomically
+	 */
+	public void save(Path path) throws IOException {
+		new ModelSnapshot(this.features, getNumSpamMessages(),
+				getNumHamMessages(), this.Thres).write(path);
+	}
+
+	/**
+	 * Load a model saved by {@link #save(Path)}. The file is memory-mapped and
+	 * scored in place, so a model that keeps words is ready at once whatever
+	 * its size, takes next to no heap, and is shared with other processes
+	 * that load it through the page cache. Training the loaded model, or
+	 * asking it for its words, first copies it onto the heap; like training,
+	 * do that before sharing it between scoring threads.
+	 * <p>
+	 * Only the counts and the threshold are saved. The loaded model has the
+	 * default tokenizer, scoring limits and other settings, so set them again
+	 * if the saved model used others.
+	 * 
+	 * @param path
+	 *            the file to read
+	 * @return a classifier ready to score messages
+	 */
+	public static SpamClassifier load(Path path) throws IOException {
+		ModelSnapshot snapshot = ModelSnapshot.read(path);
+		SpamClassifier c = new SpamClassifier();
+		c.setCounts(snapshot.features, snapshot.spamMessages,
+				snapshot.hamMessages);
+		c.Thres = snapshot.threshold;
+		return c;
+	}
+
+	/**
+	 * Replace the word and message counts of this classifier.
+	 */
+	void setCounts(FeatureTable features, int spamMessages, int hamMessages) {
+		this.features = features;
+		this.spamMessages.set(spamMessages);
+		this.hamMessages.set(hamMessages);
+	}
+
+	/**
+	 * The tokenizer factory set with {@link #setTokenizer(Supplier)}.
+	 */
+	Supplier<? extends Tokenizer> tokenizerFactory() {
+		return this.tokenizerFactory;
+	}
+
+	/**
+	 * Add the word counts and the numbers of spam and ham messages of another
+	 * model, trained on other messages, to this one. Training on two halves
+	 * of a corpus and merging gives the same model as training on the whole
+	 * corpus, so shards can be trained in separate processes or on separate
+	 * machines, {@link #save(Path) saved}, and merged here. The threshold and
+	 * settings of this model are kept.
+	 * 
+	 * @param other
+	 *            the model to add, which is not modified
+	 * @throws IllegalArgumentException
+	 *             if the other model hashes its features and this one does
+	 *             not, or they hash into different numbers of buckets
+	 */
+	public void merge(SpamClassifier other) {
+		if (!(this.features instanceof HashedFeatureTable)
+				&& other.features instanceof HashedFeatureTable) {
+			throw new IllegalArgumentException(
+					"Cannot merge hashed features into a model that keeps words");
+		}
+		addAll(other);
+	}
+
+	/**
+	 * Load the given saved models and merge them into one, keeping the
+	 * threshold of the first.
+	 * 
+	 * @param models
+	 *            the files written by {@link #save(Path)}
+	 * @return the merged model
+	 */
+	public static SpamClassifier mergeAll(Iterable<Path> models)
+			throws IOException {
+		SpamClassifier merged = null;
+		for (Path p : models) {
+			SpamClassifier c = load(p);
+			if (merged == null) {
+				merged = c;
+			} else {
+				merged.merge(c);
+			}
+		}
+		if (merged == null) {
+			throw new IllegalArgumentException("No models to merge");
+		}
+		return merged;
+	}
+
+	/**
+	 * The word counts of this classifier.
+	 */
+	FeatureTable features() {
+		return this.features;
+	}
+
+	/**
+	 * The word counts of this classifier, copied onto the heap first if they
+	 * are still read from a {@link #load(Path) loaded} file, so that they can
+	 * be changed.
+	 */
+	FeatureTable writableFeatures() {
+		if (this.features instanceof MappedVocabulary) {
+			this.features = ((MappedVocabulary) this.features).toVocabulary();
+		}
+		return this.features;
+	}
+
+	/**
+	 * The given counts, copied onto the heap if they are read from a file, so
+	 * that they can be added to another table.
+	 */
+	private static FeatureTable onHeap(FeatureTable counts) {
+		return counts instanceof MappedVocabulary ? ((MappedVocabulary) counts)
+				.toVocabulary() : counts;
+	}
+
+	/**
+	 * The word counts of this classifier if it keeps every word, copied onto
+	 * the heap if they were loaded, or null if it hashes them.
+	 */
+	private Vocabulary vocabulary() {
+		FeatureTable features = writableFeatures();
+		return features instanceof Vocabulary ? (Vocabulary) features
+				: null;
+	}
+
+	/**
+	 * Make a copy of this classifier with its own counts and the same
+	 * settings.
+	 */
+	SpamClassifier copy() {
+		SpamClassifier c = new SpamClassifier();
+		c.features = this.features.copy();
+		c.spamMessages.set(this.spamMessages.get());
+		c.hamMessages.set(this.hamMessages.get());
+		c.copySettings(this);
+		return c;
+	}
+
+	/**
+	 * Use the same threshold, tokenizer and scoring options as the other
+	 * classifier.
+	 */
+	void copySettings(SpamClassifier other) {
+		this.Thres = other.Thres;
+		this.trainingThreads = other.trainingThreads;
+		this.tokenizerFactory = other.tokenizerFactory;
+		this.logSpaceScoring = other.logSpaceScoring;
+		this.earlyExit = other.earlyExit;
+		this.maxInterestingTokens = other.maxInterestingTokens;
+		this.scoringLimits = other.scoringLimits;
+		this.maxWords = other.maxWords;
+		this.metrics = other.metrics;
+		this.journal = other.journal;
+		this.corpusCache = other.corpusCache;
+	}
+
+	/**
+	 * Count one more spam message, journaling its source.
+	 */
+	void countSpamMessage(String source) {
+		this.spamMessages.incrementAndGet();
+		if (this.decay != null) {
+			this.decay.countMessages(1, 0);
+		}
+		TrainingJournal journal = this.journal;
+		if (journal != null) {
+			journal.record(true, source);
+		}
+	}
+
+	/**
+	 * Count one more ham message, journaling its source.
+	 */
+	void countHamMessage(String source) {
+		this.hamMessages.incrementAndGet();
+		if (this.decay != null) {
+			this.decay.countMessages(0, 1);
+		}
+		TrainingJournal journal = this.journal;
+		if (journal != null) {
+			journal.record(false, source);
+		}
+	}
+
+	/**
+	 * Record the source of every training message counted from now on in the
+	 * given journal, or stop recording if it is null. The classifier itself
+	 * only keeps the numbers of spam and ham messages. Copies made from this
+	 * classifier record into the same journal; closing it is up to the
+	 * caller.
+	 */
+	public void setTrainingJournal(TrainingJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * The journal recording training messages, or null.
+	 */
+	public TrainingJournal getTrainingJournal() {
+		return this.journal;
+	}
+
+	/**
+	 * Add the word counts and message counts of the other classifier to this
+	 * one.
+	 */
+	void addAll(SpamClassifier other) {
+		addCounts(other.features);
+		int spam = other.spamMessages.get();
+		int ham = other.hamMessages.get();
+		this.spamMessages.addAndGet(spam);
+		this.hamMessages.addAndGet(ham);
+		if (this.decay != null) {
+			this.decay.countMessages(spam, ham);
+		}
+	}
+
+	/**
+	 * Add word counts, such as those of a training shard, to the model and
+	 * the current decay epoch. The messages are counted separately.
+	 */
+	void addCounts(FeatureTable counts) {
+		counts = onHeap(counts);
+		if (this.decay != null) {
+			advanceDueEpochs();
+			this.decay.current().addAll(counts);
+		}
+		writableFeatures().addAll(counts);
+		pruneToMaxWords();
+	}
+
+	/**
+	 * Add the word counts of every message of a tokenized corpus to the model
+	 * and the current decay epoch. The messages are counted separately.
+	 */
+	void addCounts(TokenizedCorpus corpus) {
+		if (this.decay != null) {
+			advanceDueEpochs();
+			corpus.trainInto(this.decay.current());
+		}
+		corpus.trainInto(writableFeatures());
+		pruneToMaxWords();
+	}
+
+	/**
+	 * Prune the vocabulary if it has grown past {@link #setMaxWords(int)}.
+	 */
+	void pruneToMaxWords() {
+		if (this.maxWords > 0 && vocabulary() != null) {
+			vocabulary().pruneTo(this.maxWords);
+		}
+	}
+
+	/**
+	 * Forget every word that occurs in fewer than minDocFrequency training
+	 * messages, spam and ham together. Words seen once or twice, such as
+	 * message ids and base64 fragments, make up most of a large vocabulary but
+	 * hardly change any score. A pruned word is scored as unknown, and if it
+	 * is seen again in training it is counted from then on.
+	 * 
+	 * @param minDocFrequency
+	 *            the number of messages a word needs to be kept
+	 * @return the number of words removed
+	 */
+	public int prune(int minDocFrequency) {
+		return vocabulary() == null ? 0 : vocabulary().prune(minDocFrequency);
+	}
+
+	/**
+	 * Bound the memory of the model for long-running training: whenever
+	 * training leaves more than maxWords words, the rarest words are pruned
+	 * until at most three quarters of maxWords remain. When training on a
+	 * directory with several threads each shard is bounded too.
+	 * 
+	 * @param maxWords
+	 *            the most words to keep, or 0 for no bound
+	 */
+	public void setMaxWords(int maxWords) {
+		if (maxWords < 0) {
+			throw new IllegalArgumentException(
+					"Maximum number of words must not be negative: " + maxWords);
+		}
+		this.maxWords = maxWords;
+		pruneToMaxWords();
+	}
+
+	/**
+	 * Get the most words kept by the model, or 0 if there is no bound.
+	 */
+	public int getMaxWords() {
+		return this.maxWords;
+	}
+
+	/**
+	 * Keep approximate counts of every word trained from now on in count-min
+	 * sketches of fixed size, so that {@link #getNumSpamOccurrences(String)}
+	 * and {@link #getNumHamOccurrences(String)} still answer for words that
+	 * were pruned. Such an answer is never below the true count and, with
+	 * probability 1 - delta, above it by at most epsilon times the total
+	 * number of word occurrences trained. Each sketch takes 4 * ceil(e /
+	 * epsilon) * ceil(ln(1 / delta)) bytes. Scoring only uses the words that
+	 * are kept, and the sketches are not saved with {@link #save(Path)}.
+	 * 
+	 * @param epsilon
+	 *            the error bound as a fraction of all occurrences, or 0 to
+	 *            drop the sketches
+	 * @param delta
+	 *            the probability of exceeding the error bound
+	 */
+	public void setCountSketch(double epsilon, double delta) {
+		if (vocabulary() == null) {
+			throw new IllegalStateException(
+					"Hashed features already have a fixed size");
+		}
+		vocabulary().setSketch(epsilon, delta);
+	}
+
+	/**
+	 * An estimate of the memory taken by the word counts, in bytes.
+	 */
+	public long getVocabularySizeInBytes() {
+		return this.features.sizeInBytes();
+	}
+
+	/**
+	 * Count words by the hashing trick instead of keeping every distinct
+	 * word: each token is hashed from the tokenizer's buffer into one of
+	 * 2^bits buckets and only the bucket counts are kept. Training then never
+	 * creates a String per word and the model takes 24 * 2^bits bytes however
+	 * large the vocabulary grows. Words that land in the same bucket share
+	 * their counts, which trades some accuracy for the fixed size; see
+	 * {@link HashedFeatureTable} for the collision rates to expect. The word
+	 * set getters return empty sets and pruning has nothing to remove. Each
+	 * scoring thread also keeps a 4 * 2^bits byte buffer to skip duplicate
+	 * words. This must be chosen before training.
+	 * 
+	 * @param bits
+	 *            the number of bits of the bucket index, for example 18 for
+	 *            262,144 buckets, or 0 to keep every word
+	 */
+	public void setHashedFeatures(int bits) {
+		if (this.features.maxCount() > 0 || this.spamMessages.get() > 0
+				|| this.hamMessages.get() > 0) {
+			throw new IllegalStateException(
+					"Choose hashed features before training");
+		}
+		if (bits != 0 && this.decay != null) {
+			throw new IllegalStateException("Hashed features cannot decay");
+		}
+		this.features = bits == 0 ? new Vocabulary() : new HashedFeatureTable(
+				bits);
+	}
+
+	/**
+	 * Start recording {@link ClassifierMetrics} for this classifier and for
+	 * the copies made from it from now on, or return the metrics already
+	 * being recorded. Register them with
+	 * {@link ClassifierMetrics#register(String)} to read them over JMX.
+	 */
+	public ClassifierMetrics enableMetrics() {
+		if (this.metrics == null) {
+			this.metrics = new ClassifierMetrics(this);
+		}
+		return this.metrics;
+	}
+
+	/**
+	 * Stop recording metrics. Without metrics scoring and training cost one
+	 * null check more than before they existed.
+	 */
+	public void disableMetrics() {
+		this.metrics = null;
+	}
+
+	/**
+	 * The metrics being recorded, or null if they are disabled.
+	 */
+	public ClassifierMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Get the number of bits of the hashed feature buckets, or 0 if every word
+	 * is kept.
+	 */
+	public int getHashedFeatureBits() {
+		return this.features instanceof HashedFeatureTable ? ((HashedFeatureTable) this.features)
+				.bits() : 0;
+	}
+
+	/**
+	 * Let trained counts age out of the model so that it follows current mail
+	 * and stops growing. Training is grouped into epochs, and when a new epoch
+	 * starts the counts of the messages trained more than the given number of
+	 * epochs ago are subtracted again, words and messages alike. Expiring an
+	 * epoch takes time in proportion to the distinct words trained in it.
+	 * <p>
+	 * Counts already in the model are treated as trained in the current
+	 * epoch. Decay is not saved with {@link #save(Path)}, and copies of the
+	 * classifier do not decay.
+	 * 
+	 * @param epochs
+	 *            the number of epochs a count is kept for, including the one
+	 *            it was trained in, or 0 to stop decaying and keep every count
+	 *            from now on
+	 * @param epochMillis
+	 *            the length of an epoch, checked whenever the model is
+	 *            trained, or 0 to only start epochs with
+	 *            {@link #advanceEpoch()}
+	 */
+	public void setDecayWindow(int epochs, long epochMillis) {
+		if (epochs < 0 || epochMillis < 0) {
+			throw new IllegalArgumentException("Decay window must not be "
+					+ "negative: " + epochs + " epochs of " + epochMillis
+					+ " ms");
+		}
+		if (epochs == 0) {
+			this.decay = null;
+			return;
+		}
+		if (vocabulary() == null) {
+			throw new IllegalStateException("Hashed features cannot decay");
+		}
+		DecayWindow decay = new DecayWindow(epochs, epochMillis,
+				System.currentTimeMillis());
+		decay.current().addAll(this.features);
+		decay.countMessages(this.spamMessages.get(), this.hamMessages.get());
+		this.decay = decay;
+	}
+
+	/**
+	 * Get the number of epochs a trained count is kept for, or 0 if counts
+	 * do not decay.
+	 */
+	public int getDecayEpochs() {
+		return this.decay == null ? 0 : this.decay.size();
+	}
+
+	/**
+	 * Start a new decay epoch now, expiring the oldest one.
+	 * 
+	 * @throws IllegalStateException
+	 *             if counts do not decay
+	 */
+	public void advanceEpoch() {
+		if (this.decay == null) {
+			throw new IllegalStateException("Counts do not decay");
+		}
+		this.decay.advance(vocabulary(), this.spamMessages, this.hamMessages);
+		pruneEmptyWords();
+	}
+
+	/**
+	 * Start the epochs that are due by the clock before training.
+	 */
+	private void advanceDueEpochs() {
+		DecayWindow decay = this.decay;
+		if (decay == null) {
+			return;
+		}
+		int due = decay.due(System.currentTimeMillis());
+		if (due > 0) {
+			for (int i = 0; i < due; i++) {
+				decay.advance(vocabulary(), this.spamMessages,
+						this.hamMessages);
+			}
+			pruneEmptyWords();
+		}
+	}
+
+	/**
+	 * Drop the words whose counts have all been removed once they make up a
+	 * quarter of the vocabulary, so that the cost is spread over many
+	 * removals.
+	 */
+	private void pruneEmptyWords() {
+		Vocabulary v = vocabulary();
+		if (v != null && v.emptyWords() > v.size() / 4) {
+			v.prune(1);
 		}
 	}
 
@@ -114,7 +837,7 @@ public class SpamClassifier {
 	 * @return The number of spam messages in the data set.
 	 */
 	public int getNumSpamMessages() {
-		return this.spamMessages.size();
+		return this.spamMessages.get();
 	}
 
 	/**
@@ -123,71 +846,85 @@ public class SpamClassifier {
 	 * @return The number of ham messages in the data set.
 	 */
 	public int getNumHamMessages() {
-		return this.hamMessages.size();
+		return this.hamMessages.get();
 	}
 
 	/**
 	 * Return a set of all the words that occur in at least one spam message.
+	 * The set is a read-only view of the model, so it costs nothing to get.
+	 * With {@link #setHashedFeatures(int) hashed features} no words are kept
+	 * and the set is empty.
 	 * 
 	 * @return
 	 */
 	public Set<String> getAllSpamWords() {
-		return this.spamMap.keySet();
+		Vocabulary v = vocabulary();
+		return v == null ? Collections.<String> emptySet() : v.spamWords();
 	}
 
 	/**
 	 * Return a set of all the words that occur in at least one ham message.
+	 * The set is a read-only view of the model, so it costs nothing to get.
+	 * With {@link #setHashedFeatures(int) hashed features} no words are kept
+	 * and the set is empty.
 	 * 
 	 * @return
 	 */
 	public Set<String> getAllHamWords() {
-		return this.hamMap.keySet();
+		Vocabulary v = vocabulary();
+		return v == null ? Collections.<String> emptySet() : v.hamWords();
 	}
 
 	/**
 	 * Return a set of all the unique words the classifier has seen so far.
+	 * Like the spam and ham word sets this is a read-only view that follows
+	 * training, not a copy. With {@link #setHashedFeatures(int) hashed
+	 * features} no words are kept and the set is empty.
 	 * 
 	 * @return A set of all of the unique words that the classifier has seen so
 	 *         far.
 	 */
 	public Set<String> getAllWords() {
-		Set<String> set1 = new HashSet<String>(spamMap.keySet());
-		Set<String> set2 = new HashSet<String>(hamMap.keySet());
-		//set1.retainAll(set2);
-		set1.addAll(set2);
-		return set1;
+		Vocabulary v = vocabulary();
+		return v == null ? Collections.<String> emptySet() : v.allWords();
+	}
+
+	/**
+	 * Walk all the words with their spam and ham counts, without copying the
+	 * vocabulary or looking each word up again.
+	 * 
+	 * @return a cursor before the first word
+	 */
+	public WordCursor words() {
+		return new WordCursor(vocabulary());
 	}
 
 	/**
 	 * Get the number of times the given word occurs in the spam messages in the
-	 * data set.
+	 * data set. For a pruned word this is the
+	 * {@link #setCountSketch(double, double) sketch} estimate, or 0, and with
+	 * hashed features it includes the words that share its bucket.
 	 * 
 	 * @param word
 	 * @return The number of occurrences of the given word in the spam messages
 	 *         in the data set.
 	 */
 	public int getNumSpamOccurrences(String word) {
-		if (this.spamMap.containsKey(word)) {
-			return this.spamMap.get(word);
-		} else {
-			return 0;
-		}
+		return this.features.spamCount(word);
 	}
 
 	/**
 	 * Get the number of times the given word occurs in the ham messages in the
-	 * data set.
+	 * data set. For a pruned word this is the
+	 * {@link #setCountSketch(double, double) sketch} estimate, or 0, and with
+	 * hashed features it includes the words that share its bucket.
 	 * 
 	 * @param word
 	 * @return The number of occurrences of the given word in the ham messages
 	 *         in the data set.
 	 */
 	public int getNumHamOccurrences(String word) {
-		if (this.hamMap.containsKey(word)) {
-			return this.hamMap.get(word);
-		} else {
-			return 0;
-		}
+		return this.features.hamCount(word);
 	}
 
 	/**
@@ -215,60 +952,329 @@ public class SpamClassifier {
 	 * @return
 	 */
 	public double probWord(String word) {
-		if (spamMap.containsKey(word) && hamMap.containsKey(word)) {
-			return (double) (this.spamMap.get(word) + this.hamMap.get(word))
-					/ (spamMessages.size() + hamMessages.size());
-		} else if (spamMap.containsKey(word)) {
-			return (double) this.spamMap.get(word)
-					/ (spamMessages.size() + hamMessages.size());
-		} else if (hamMap.containsKey(word)) {
-			return (double) this.hamMap.get(word)
-					/ (spamMessages.size() + hamMessages.size());
+		int id = this.features.find(word);
+		if (id < 0) {
+			return 0;
 		}
-		return 0;
+		return (double) (this.features.spamCount(id) + this.features
+				.hamCount(id)) / (spamMessages.get() + hamMessages.get());
 	}
 
 	/**
 	 * Using the probabilities that we have trained into our dataset determine
 	 * the score for the given message.
+	 * <p>
+	 * Each distinct word costs one vocabulary lookup and one read of its
+	 * precomputed score, and the token and duplicate tracking buffers are
+	 * reused by the calling thread, so scoring does not allocate per message or
+	 * per word. With {@link #setMaxInterestingTokens(int)} only the words
+	 * furthest from neutral are combined into the score. With
+	 * {@link #setScoringLimits(ScoringLimits)} only part of a long message may
+	 * be scored; use {@link #scoreMessage(InputStream)} to learn whether it
+	 * was.
 	 * 
 	 * @param in
 	 * @return The score for the given file.
 	 */
 	public double probSpamForMessage(InputStream in) {
-		Scanner scan = new Scanner(in);
+		return score(in, MessageBuffers.get(), this.scoringLimits);
+	}
+
+	/**
+	 * Score a message like {@link #probSpamForMessage(InputStream)} and report
+	 * the verdict and which of the {@link #setScoringLimits(ScoringLimits)
+	 * scoring limits} the message hit.
+	 * 
+	 * @param in
+	 *            the message
+	 * @return the score, and whether it was computed on truncated input
+	 */
+	public ScoreResult scoreMessage(InputStream in) {
+		return scoreMessage(in, this.scoringLimits);
+	}
+
+	/**
+	 * Score a message like {@link #scoreMessage(InputStream)} but with the
+	 * given limits instead of the classifier's own, so that callers sharing a
+	 * model can each apply their own limits without changing it.
+	 * 
+	 * @param in
+	 *            the message
+	 * @param limits
+	 *            the limits, or {@link ScoringLimits#NONE}
+	 * @return the score, and whether it was computed on truncated input
+	 */
+	public ScoreResult scoreMessage(InputStream in, ScoringLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("Scoring limits must not be null");
+		}
+		MessageBuffers buffers = MessageBuffers.get();
+		double score = score(in, buffers, limits);
+		return new ScoreResult(score, score > this.Thres,
+				buffers.tokenCount(), buffers.limitsHit());
+	}
+
+	/**
+	 * Score a message, leaving its token count and the limits it hit in the
+	 * buffers.
+	 */
+	private double score(InputStream in, MessageBuffers buffers,
+			ScoringLimits limits) {
+		ClassifierMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		Tokenizer tokens = buffers.tokenizer(this.tokenizerFactory);
+		FeatureTable v = this.features;
+		int topN = this.maxInterestingTokens;
+		boolean earlyExit = this.earlyExit && topN == 0;
+		boolean logSpace = this.logSpaceScoring || earlyExit;
+		int maxTokens = limits.getMaxTokens();
+		int maxDistinct = limits.getMaxDistinctTokens();
+		int maxLength = limits.getMaxTokenLength();
+		LimitedInputStream limited = null;
+		if (limits.getMaxBytes() > 0) {
+			limited = buffers.limit(in, limits.getMaxBytes(),
+					limits.isHeadAndTail());
+			in = limited;
+		}
 		double a = 1;
 		double b = 1;
-		Map<String, Integer> seen = new HashMap<>();
+		double logOdds = 0;
+		int distinct = 0;
+		int tokenCount = 0;
+		int unknown = 0;
+		int limitsHit = 0;
+		double threshold = Math.log(this.Thres / (1 - this.Thres));
+		double maxWordLogOdds = Math.max(Vocabulary.LOG_ODDS_CLAMP,
+				Math.log(v.maxCount()));
 
-		while (scan.hasNext()) {
-			String word = scan.next();
+		buffers.startMessage(v.size());
+		buffers.startHeap(topN);
+		// one more char tells a token that is too long from one that fits
+		tokens.setMaxLength(maxLength == 0 || maxLength == Integer.MAX_VALUE
+				? maxLength : maxLength + 1);
+		tokens.reset(in);
+		try {
+			while (tokens.next()) {
+				if (tokenCount == maxTokens && maxTokens > 0) {
+					limitsHit |= TOKENS;
+					break;
+				}
+				tokenCount++;
+				if (tokens.length() > maxLength && maxLength > 0) {
+					limitsHit |= TOKEN_LENGTH;
+					continue;
+				}
+				int id = v.find(tokens.chars(), tokens.length(), tokens.hash());
+				if (id < 0) {
+					unknown++;
+					continue;
+				}
+				if (!buffers.firstSighting(id)) {
+					continue;
+				}
+				if (distinct == maxDistinct && maxDistinct > 0) {
+					limitsHit |= DISTINCT_TOKENS;
+					break;
+				}
+				distinct++;
 
-			if (seen.keySet().contains(word)) {
-				continue;
-			} else {
-				seen.put(word, 1);
+				if (topN > 0) {
+					// |log-odds| grows with |p - 0.5|, so it ranks the same
+					buffers.offer(id, Math.abs(v.logOdds(id)));
+				} else if (logSpace) {
+					logOdds += v.logOdds(id);
+					if (earlyExit
+							&& (distinct & EARLY_EXIT_INTERVAL) == 0
+							&& isDecided(logOdds, threshold, maxWordLogOdds,
+									v.size() - distinct, tokens, in)) {
+						break;
+					}
+				} else {
+					double p = v.prob(id);
+					a = a * p;
+					b = b * (1 - p);
+				}
 			}
-
-			if (this.probSpamGivenWord(word) == null) {
-				continue;
+		} catch (IOException e) {
+			// Like Scanner, score whatever could be read before the failure
+		} finally {
+			tokens.reset(null);
+			tokens.setMaxLength(0);
+			if (limited != null) {
+				if (limited.truncated()) {
+					limitsHit |= BYTES;
+				}
+				limited.reset(null, 0, false);
 			}
+		}
+		buffers.scored(tokenCount, limitsHit);
 
-			double p = this.probSpamGivenWord(word);
+		for (int i = 0; i < buffers.heapSize(); i++) {
+			int id = buffers.heapId(i);
+			if (logSpace) {
+				logOdds += v.logOdds(id);
+			} else {
+				double p = v.prob(id);
+				a = a * p;
+				b = b * (1 - p);
+			}
+		}
+		double score = logSpace ? 1 / (1 + Math.exp(-logOdds)) : a / (a + b);
+		if (metrics != null) {
+			metrics.scored(tokenCount, unknown, System.nanoTime() - start);
+		}
+		return score;
+	}
 
-			if (p == 1) {
-				a *= 0.95;
-				b *= 0.05;
-			} else if (p == 0) {
-				a *= 0.05;
-				b *= 0.95;
+	/**
+	 * Score a message that has already been tokenized, given as the distinct
+	 * ids of its known words, the same way
+	 * {@link #probSpamForMessage(InputStream)} scores it from a stream.
+	 */
+	double probSpamForIds(int[] ids, int count) {
+		FeatureTable v = this.features;
+		int topN = this.maxInterestingTokens;
+		MessageBuffers buffers = MessageBuffers.get();
+		buffers.startHeap(topN);
+		boolean logSpace = this.logSpaceScoring || this.earlyExit;
+		double a = 1;
+		double b = 1;
+		double logOdds = 0;
+		for (int i = 0; i < count; i++) {
+			int id = ids[i];
+			if (topN > 0) {
+				buffers.offer(id, Math.abs(v.logOdds(id)));
+			} else if (logSpace) {
+				logOdds += v.logOdds(id);
 			} else {
+				double p = v.prob(id);
 				a = a * p;
 				b = b * (1 - p);
 			}
 		}
+		for (int i = 0; i < buffers.heapSize(); i++) {
+			int id = buffers.heapId(i);
+			if (logSpace) {
+				logOdds += v.logOdds(id);
+			} else {
+				double p = v.prob(id);
+				a = a * p;
+				b = b * (1 - p);
+			}
+		}
+		return logSpace ? 1 / (1 + Math.exp(-logOdds)) : a / (a + b);
+	}
 
-		return a / (a + b);
+	/**
+	 * Check whether the rest of a message can still move its log-odds across
+	 * the threshold. Every remaining distinct word moves it by at most
+	 * maxWordLogOdds, and there are no more remaining words than unseen
+	 * vocabulary words or, when the length of the stream is known, than half
+	 * the chars left to read.
+	 */
+	private static boolean isDecided(double logOdds, double threshold,
+			double maxWordLogOdds, long unseenWords, Tokenizer tokens,
+			InputStream in) throws IOException {
+		long remaining = unseenWords;
+		long bytes = LimitedInputStream.remainingBytes(in);
+		int pending = tokens.pending();
+		if (bytes >= 0 && pending >= 0) {
+			remaining = Math.min(remaining, (bytes + pending) / 2 + 1);
+		}
+		double swing = remaining * maxWordLogOdds;
+		return logOdds - swing > threshold || logOdds + swing < threshold;
+	}
+
+	/**
+	 * Accumulate message scores as a sum of log-odds instead of a product of
+	 * probabilities. The product underflows to 0 on long messages, which makes
+	 * the score NaN or meaningless; the log-odds sum gives the same score
+	 * wherever the product does not underflow.
+	 * 
+	 * @param logSpace
+	 *            true to score in log space
+	 */
+	public void setLogSpaceScoring(boolean logSpace) {
+		this.logSpaceScoring = logSpace;
+	}
+
+	/**
+	 * Return true if messages are scored in log space.
+	 */
+	public boolean isLogSpaceScoring() {
+		return this.logSpaceScoring;
+	}
+
+	/**
+	 * Stop reading a message as soon as its remaining words can no longer move
+	 * its score across {@link #getThreshold()}. The classification stays the
+	 * same, but {@link #probSpamForMessage(InputStream)} then returns the score
+	 * of the part that was read, and the stream is left partly unread. Early
+	 * exit always scores in log space.
+	 * 
+	 * @param earlyExit
+	 *            true to stop reading once the verdict is decided
+	 */
+	public void setEarlyExit(boolean earlyExit) {
+		this.earlyExit = earlyExit;
+	}
+
+	/**
+	 * Return true if scoring stops once the verdict is decided.
+	 */
+	public boolean isEarlyExit() {
+		return this.earlyExit;
+	}
+
+	/**
+	 * Score a message using only the given number of its distinct words that
+	 * are furthest from neutral, as Graham's "A Plan for Spam" does with 15.
+	 * Words near 0.5 say little about a message but still take part in the
+	 * product; leaving them out keeps the score from drifting on long messages
+	 * and bounds the scoring work per message. The words are picked with a
+	 * fixed-size heap while reading, so this does not sort or allocate. Early
+	 * exit is not used while this is on, because a word read later can still
+	 * replace one already picked.
+	 * 
+	 * @param n
+	 *            the number of words to score, or 0 to score every word
+	 */
+	public void setMaxInterestingTokens(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException(
+					"Number of interesting tokens must not be negative: " + n);
+		}
+		this.maxInterestingTokens = n;
+	}
+
+	/**
+	 * Return the number of most interesting words scored per message, or 0 if
+	 * every word is scored.
+	 */
+	public int getMaxInterestingTokens() {
+		return this.maxInterestingTokens;
+	}
+
+	/**
+	 * Bound the bytes, tokens, distinct words and token length read from each
+	 * message that is scored, so that a huge or hostile message cannot stall
+	 * a scoring thread or grow its buffers. Training is not limited.
+	 * 
+	 * @param limits
+	 *            the limits, or {@link ScoringLimits#NONE}
+	 */
+	public void setScoringLimits(ScoringLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("Scoring limits must not be null");
+		}
+		this.scoringLimits = limits;
+	}
+
+	/**
+	 * Return the limits on the part of each message that is scored.
+	 */
+	public ScoringLimits getScoringLimits() {
+		return this.scoringLimits;
 	}
 
 	/**
@@ -287,15 +1293,29 @@ public class SpamClassifier {
 	 *         for the given word cannot be computed.
 	 */
 	public Double probSpamGivenWord(String word) {
-		if (spamMap.containsKey(word) && hamMap.containsKey(word)) {
-			int i = spamMap.get(word);
-			return (double) i / (i + hamMap.get(word));
-		} else if (spamMap.containsKey(word)) {
-			return 1.0;
-		} else if (hamMap.containsKey(word)) {
-			return 0.0;
-		}
-		return null;
+		int id = this.features.find(word);
+		ClassifierMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.lookedUp(id >= 0);
+		}
+		if (id < 0) {
+			return null;
+		}
+		int i = this.features.spamCount(id);
+		return (double) i / (i + this.features.hamCount(id));
+	}
+
+	/**
+	 * Score many messages using all cores, reading and scoring them in a
+	 * pipeline. The classifier must not be trained until this returns.
+	 * 
+	 * @param messages
+	 *            the files to score
+	 * @return the scores of the messages, in the same order
+	 * @see BatchClassifier
+	 */
+	public List<Double> classifyAll(Iterable<Path> messages) throws IOException {
+		return new BatchClassifier(this).classifyAll(messages);
 	}
 
 	/**
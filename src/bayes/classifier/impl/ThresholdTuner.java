@@ -0,0 +1,281 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the threshold of a {@link SpamClassifier} from a labelled validation
+ * corpus.
+ * <p>
+ * The corpus is scored once, in parallel with a {@link BatchClassifier}, and
+ * the spam and ham scores are kept as two sorted arrays. The number of spam
+ * and ham messages above any threshold is then a binary search, so sweeping
+ * thresholds for an ROC or precision-recall curve, or re-tuning for another
+ * false positive rate, never scores a message again.
+ * <p>
+ * Messages are scored with early exit off, since early exit only gives exact
+ * scores relative to the current threshold. A message scored NaN, which the
+ * product scoring gives on underflow, is never spam, as in
+ * {@link SpamClassifier#isSpam(java.io.InputStream)}.
+ */
+public class ThresholdTuner {
+	/** The outcome of classifying the validation corpus at one threshold. */
+	public static final class OperatingPoint {
+		private final double threshold;
+		private final int truePositives;
+		private final int falsePositives;
+		private final int spam;
+		private final int ham;
+
+		OperatingPoint(double threshold, int truePositives,
+				int falsePositives, int spam, int ham) {
+			this.threshold = threshold;
+			this.truePositives = truePositives;
+			this.falsePositives = falsePositives;
+			this.spam = spam;
+			this.ham = ham;
+		}
+
+		/**
+		 * Messages scoring above this are spam.
+		 */
+		public double getThreshold() {
+			return threshold;
+		}
+
+		/**
+		 * The number of spam messages classified as spam.
+		 */
+		public int getTruePositives() {
+			return truePositives;
+		}
+
+		/**
+		 * The number of ham messages classified as spam.
+		 */
+		public int getFalsePositives() {
+			return falsePositives;
+		}
+
+		/**
+		 * The share of spam classified as spam, also called recall.
+		 */
+		public double getTruePositiveRate() {
+			return spam == 0 ? 0 : (double) truePositives / spam;
+		}
+
+		/**
+		 * The share of ham classified as spam.
+		 */
+		public double getFalsePositiveRate() {
+			return ham == 0 ? 0 : (double) falsePositives / ham;
+		}
+
+		/**
+		 * The share of messages classified as spam that are spam, or 1 if no
+		 * message is.
+		 */
+		public double getPrecision() {
+			int positives = truePositives + falsePositives;
+			return positives == 0 ? 1 : (double) truePositives / positives;
+		}
+
+		public double getRecall() {
+			return getTruePositiveRate();
+		}
+
+		@Override
+		public String toString() {
+			return "threshold " + threshold + ": TPR " + getTruePositiveRate()
+					+ ", FPR " + getFalsePositiveRate() + ", precision "
+					+ getPrecision();
+		}
+	}
+
+	private final SpamClassifier classifier;
+	private final int threads;
+	private double[] spamScores = new double[0];
+	private double[] hamScores = new double[0];
+
+	/**
+	 * Create a tuner that scores with one thread per core.
+	 * 
+	 * @param classifier
+	 *            the trained model, whose threshold {@link #tune(double)}
+	 *            sets
+	 */
+	public ThresholdTuner(SpamClassifier classifier) {
+		this(classifier, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param classifier
+	 *            the trained model, whose threshold {@link #tune(double)}
+	 *            sets
+	 * @param threads
+	 *            the number of scoring threads
+	 */
+	public ThresholdTuner(SpamClassifier classifier, int threads) {
+		this.classifier = classifier;
+		this.threads = threads;
+	}
+
+	/**
+	 * Score every file in the given spam and ham directories and keep the
+	 * scores, replacing any scored before.
+	 */
+	public void score(Path spamDir, Path hamDir) throws IOException {
+		score(list(spamDir), list(hamDir));
+	}
+
+	/**
+	 * Score the given spam and ham messages and keep the scores, replacing any
+	 * scored before.
+	 */
+	public void score(List<Path> spam, List<Path> ham) throws IOException {
+		SpamClassifier scorer = classifier.copy();
+		scorer.setEarlyExit(false);
+		BatchClassifier batch = new BatchClassifier(scorer, threads,
+				4 * threads);
+		this.spamScores = sorted(batch.classifyAll(spam));
+		this.hamScores = sorted(batch.classifyAll(ham));
+	}
+
+	private static double[] sorted(List<Double> scores) {
+		double[] a = new double[scores.size()];
+		for (int i = 0; i < a.length; i++) {
+			double s = scores.get(i);
+			a[i] = Double.isNaN(s) ? Double.NEGATIVE_INFINITY : s;
+		}
+		Arrays.sort(a);
+		return a;
+	}
+
+	private static List<Path> list(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path p : stream) {
+				if (Files.isRegularFile(p)) {
+					files.add(p);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * The number of the sorted scores that are above the threshold.
+	 */
+	private static int countAbove(double[] sorted, double threshold) {
+		int lo = 0;
+		int hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] > threshold) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return sorted.length - lo;
+	}
+
+	/**
+	 * How the validation corpus is classified at the given threshold.
+	 */
+	public OperatingPoint evaluate(double threshold) {
+		return new OperatingPoint(threshold, countAbove(spamScores, threshold),
+				countAbove(hamScores, threshold), spamScores.length,
+				hamScores.length);
+	}
+
+	/**
+	 * The operating points at every distinct score, from the highest
+	 * threshold, where nothing is spam, down to negative infinity, where
+	 * everything that did not score NaN is spam. Plotting the false positive
+	 * rate against the true positive rate gives the ROC curve, recall against
+	 * precision the precision-recall curve.
+	 */
+	public List<OperatingPoint> curve() {
+		double[] all = new double[spamScores.length + hamScores.length];
+		System.arraycopy(spamScores, 0, all, 0, spamScores.length);
+		System.arraycopy(hamScores, 0, all, spamScores.length,
+				hamScores.length);
+		Arrays.sort(all);
+		List<OperatingPoint> points = new ArrayList<>();
+		for (int i = all.length - 1; i >= 0; i--) {
+			if (i == all.length - 1 || all[i] != all[i + 1]) {
+				points.add(evaluate(all[i]));
+			}
+		}
+		if (points.isEmpty()
+				|| points.get(points.size() - 1).getThreshold() != Double.NEGATIVE_INFINITY) {
+			points.add(evaluate(Double.NEGATIVE_INFINITY));
+		}
+		return points;
+	}
+
+	/**
+	 * The area under the ROC curve: the chance that a random spam message
+	 * scores above a random ham message.
+	 */
+	public double auc() {
+		double area = 0;
+		OperatingPoint previous = null;
+		for (OperatingPoint p : curve()) {
+			if (previous != null) {
+				area += (p.getFalsePositiveRate() - previous
+						.getFalsePositiveRate())
+						* (p.getTruePositiveRate() + previous
+								.getTruePositiveRate()) / 2;
+			}
+			previous = p;
+		}
+		return area;
+	}
+
+	/**
+	 * The lowest threshold, and so the most spam caught, at which at most the
+	 * given share of the validation ham is classified as spam.
+	 * 
+	 * @param maxFalsePositiveRate
+	 *            between 0 and 1, for example 0.001
+	 */
+	public OperatingPoint thresholdFor(double maxFalsePositiveRate) {
+		if (hamScores.length == 0) {
+			throw new IllegalStateException("No ham messages have been scored");
+		}
+		if (maxFalsePositiveRate < 0 || maxFalsePositiveRate > 1) {
+			throw new IllegalArgumentException(
+					"False positive rate must be between 0 and 1: "
+							+ maxFalsePositiveRate);
+		}
+		int allowed = (int) Math.floor(maxFalsePositiveRate
+				* hamScores.length);
+		if (allowed >= hamScores.length) {
+			return evaluate(Double.NEGATIVE_INFINITY);
+		}
+		// only the allowed hams scoring above the next highest one are spam
+		return evaluate(hamScores[hamScores.length - 1 - allowed]);
+	}
+
+	/**
+	 * Set the threshold of the classifier to
+	 * {@link #thresholdFor(double) the one} meeting the given false positive
+	 * rate.
+	 * 
+	 * @return the chosen operating point
+	 */
+	public OperatingPoint tune(double maxFalsePositiveRate) {
+		OperatingPoint p = thresholdFor(maxFalsePositiveRate);
+		classifier.setThreshold(p.getThreshold());
+		return p;
+	}
+}
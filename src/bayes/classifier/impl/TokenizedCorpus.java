@@ -0,0 +1,126 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A labelled corpus read and tokenized once, kept as the distinct word ids of
+ * every message against a shared dictionary, so that it can be trained on
+ * and scored any number of times without reading or tokenizing it again. The
+ * dictionary holds the counts of training on the whole corpus.
+ */
+final class TokenizedCorpus {
+	final Vocabulary dictionary = new Vocabulary();
+	private final List<int[]> documents = new ArrayList<>();
+	private final List<Boolean> labels = new ArrayList<>();
+	private long bytes;
+	private int[] ids = new int[256];
+
+	/**
+	 * Read and tokenize the given message.
+	 */
+	void add(Path file, boolean spam, Supplier<? extends Tokenizer> factory)
+			throws IOException {
+		bytes += Files.size(file);
+		MessageBuffers buffers = MessageBuffers.get();
+		Tokenizer tokens = buffers.tokenizer(factory);
+		buffers.startMessage(dictionary.size());
+		int count = 0;
+		try (InputStream in = Files.newInputStream(file)) {
+			tokens.reset(in);
+			while (tokens.next()) {
+				int id = dictionary.add(tokens.chars(), tokens.length(),
+						tokens.hash());
+				if (buffers.firstSighting(id)) {
+					if (count == ids.length) {
+						ids = Arrays.copyOf(ids, count * 2);
+					}
+					ids[count++] = id;
+				}
+			}
+		} finally {
+			tokens.reset(null);
+		}
+		addDocument(Arrays.copyOf(ids, count), spam);
+	}
+
+	/**
+	 * Add a message given as the distinct dictionary ids of its words.
+	 */
+	void addDocument(int[] document, boolean spam) {
+		for (int id : document) {
+			if (spam) {
+				dictionary.addSpam(id, 1);
+			} else {
+				dictionary.addHam(id, 1);
+			}
+		}
+		documents.add(document);
+		labels.add(spam);
+	}
+
+	/**
+	 * Add to the given table the counts of training on every message of the
+	 * corpus. A {@link Vocabulary} takes the summed count of each word; any
+	 * other table, which may give two words the same id, is counted message
+	 * by message so that an id still counts once per message.
+	 */
+	void trainInto(FeatureTable counts) {
+		int words = dictionary.size();
+		int[] remap = new int[words];
+		for (int id = 0; id < words; id++) {
+			String w = dictionary.word(id);
+			remap[id] = counts.add(w.toCharArray(), w.length(), w.hashCode());
+		}
+		if (counts instanceof Vocabulary) {
+			for (int id = 0; id < words; id++) {
+				counts.addSpam(remap[id], dictionary.spamCount(id));
+				counts.addHam(remap[id], dictionary.hamCount(id));
+			}
+			return;
+		}
+		MessageBuffers buffers = MessageBuffers.get();
+		for (int i = 0; i < documents.size(); i++) {
+			buffers.startMessage(counts.size());
+			boolean spam = labels.get(i);
+			for (int id : documents.get(i)) {
+				int to = remap[id];
+				if (buffers.firstSighting(to)) {
+					if (spam) {
+						counts.addSpam(to, 1);
+					} else {
+						counts.addHam(to, 1);
+					}
+				}
+			}
+		}
+	}
+
+	int size() {
+		return documents.size();
+	}
+
+	/**
+	 * The distinct dictionary ids of the words of the i-th message.
+	 */
+	int[] document(int i) {
+		return documents.get(i);
+	}
+
+	boolean isSpam(int i) {
+		return labels.get(i);
+	}
+
+	/**
+	 * The total size of the files read.
+	 */
+	long bytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,85 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a message into the words that a {@link SpamClassifier} counts and
+ * scores.
+ * <p>
+ * A tokenizer is a reusable cursor: it is {@link #reset(InputStream)} for
+ * every message and then advanced with {@link #next()}. The current token is
+ * exposed as the first {@link #length()} chars of {@link #chars()} along with
+ * its {@link String#hashCode()}, so the classifier can look words up without
+ * creating a String for each one. Instances are used by a single thread at a
+ * time.
+ * 
+ * @see WhitespaceTokenizer
+ */
+public interface Tokenizer {
+	/**
+	 * Start reading tokens from the given stream, or release the current
+	 * stream if it is null. The tokenizer does not close the stream.
+	 */
+	void reset(InputStream in);
+
+	/**
+	 * Advance to the next token.
+	 * 
+	 * @return false when the stream has no more tokens
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * The chars of the current token, valid up to {@link #length()} and only
+	 * until the next call to {@link #next()}.
+	 */
+	char[] chars();
+
+	/**
+	 * The number of chars in the current token.
+	 */
+	int length();
+
+	/**
+	 * The {@link String#hashCode()} of the current token.
+	 */
+	int hash();
+
+	/**
+	 * Build a String for the current token.
+	 */
+	String token();
+
+	/**
+	 * An upper bound on the number of chars that have been read from the
+	 * stream but not returned as tokens yet, or -1 if it is not known. Early
+	 * exit uses it to bound how many words a message still has.
+	 */
+	default int pending() {
+		return -1;
+	}
+
+	/**
+	 * Keep at most the given number of chars of each token, reading past the
+	 * rest of a longer token without buffering it, or every char if it is 0.
+	 * Scoring sets it to bound the memory a message can use; a tokenizer that
+	 * ignores it still gives the same scores.
+	 */
+	default void setMaxLength(int max) {
+	}
+
+	/**
+	 * Identifies the tokens this tokenizer returns, so that a
+	 * {@link SpamClassifier#setCorpusCache(java.nio.file.Path) corpus cache}
+	 * built with it is only replayed for a tokenizer that splits every
+	 * message the same way. It has to name the configuration as well as the
+	 * class, so that differently configured instances do not share a cache.
+	 * 
+	 * @return the identity, or null, the default, if the tokens must not be
+	 *         cached
+	 */
+	default String cacheIdentity() {
+		return null;
+	}
+}
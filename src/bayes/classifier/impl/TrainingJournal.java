@@ -0,0 +1,83 @@
+package bayes.classifier.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only file recording where every training message came from.
+ * <p>
+ * A {@link SpamClassifier} only keeps the number of spam and ham messages it
+ * was trained on. Attach a journal with
+ * {@link SpamClassifier#setTrainingJournal(TrainingJournal)} to also keep the
+ * source of each message, one "spam source" or "ham source" line per message,
+ * on disk rather than on the heap. Messages read from a bare stream have the
+ * source "-". Lines are buffered; {@link #flush()} or {@link #close()} writes
+ * them out.
+ */
+public class TrainingJournal implements Closeable {
+	/** Receives the entries of a journal being read. */
+	public interface Visitor {
+		void message(boolean spam, String source);
+	}
+
+	private final BufferedWriter out;
+
+	/**
+	 * Open the given journal, appending to it if it exists.
+	 */
+	public TrainingJournal(Path file) throws IOException {
+		this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Append an entry. Called by the classifier for every message counted.
+	 */
+	synchronized void record(boolean spam, String source) {
+		try {
+			out.write(spam ? "spam " : "ham ");
+			out.write(source == null ? "-" : source.replace('\n', ' '));
+			out.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write training journal",
+					e);
+		}
+	}
+
+	/**
+	 * Write out the buffered entries.
+	 */
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Read every entry of the given journal in order.
+	 */
+	public static void read(Path file, Visitor visitor) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(file,
+				StandardCharsets.UTF_8)) {
+			for (String line = in.readLine(); line != null; line = in
+					.readLine()) {
+				int space = line.indexOf(' ');
+				if (space < 0) {
+					continue;
+				}
+				visitor.message(line.startsWith("spam"),
+						line.substring(space + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,625 @@
+package bayes.classifier.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The word counts of a {@link SpamClassifier}.
+ * <p>
+ * Every word is interned once and given a dense int id. The id indexes
+ * parallel arrays holding the number of spam and ham messages containing the
+ * word, so a word costs one String and two ints rather than two map entries
+ * with boxed counts, and finding both counts for a word is a single probe of
+ * an open addressing table.
+ * <p>
+ * The score of every word is kept next to its counts, both as the clamped
+ * probability that the product scoring multiplies and as the log-odds that
+ * log space scoring adds, and is recomputed whenever the counts of the word
+ * change. Scoring a word is then one array read.
+ * <p>
+ * Rare words can be {@link #prune(int) pruned} to bound memory. Optional
+ * count-min sketches keep approximate counts of every word ever added,
+ * including the pruned ones. Counts that are removed again leave words with
+ * no counts in place until the next prune; lookups and the word views skip
+ * them, so they are unknown words again.
+ */
+final class Vocabulary implements FeatureTable {
+	private static final int MIN_CAPACITY = 16;
+
+	/** Open addressing table of id + 1, 0 marks an empty slot. */
+	private int[] slots;
+	private String[] words;
+	private int[] hashes;
+	private int[] spamCounts;
+	private int[] hamCounts;
+	private double[] probs;
+	private double[] logOdds;
+	private int size;
+	private int numSpamWords;
+	private int numHamWords;
+	/** The number of words with neither spam nor ham counts. */
+	private int emptyWords;
+	private int maxCount;
+	/** The total length of all the words, for {@link #sizeInBytes()}. */
+	private long wordChars;
+	private CountMinSketch spamSketch;
+	private CountMinSketch hamSketch;
+
+	Vocabulary() {
+		this(MIN_CAPACITY);
+	}
+
+	Vocabulary(int expectedWords) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedWords) {
+			capacity <<= 1;
+		}
+		this.slots = new int[capacity * 2];
+		this.words = new String[capacity];
+		this.hashes = new int[capacity];
+		this.spamCounts = new int[capacity];
+		this.hamCounts = new int[capacity];
+		this.probs = new double[capacity];
+		this.logOdds = new double[capacity];
+	}
+
+	/** log(0.95 / 0.05), the log-odds of a word seen in only one class. */
+	static final double LOG_ODDS_CLAMP = Math.log(0.95 / 0.05);
+
+	/**
+	 * Spread the bits of a String hash code before masking it to a slot.
+	 */
+	static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	/**
+	 * Return the id of the given word, or -1 if it is not in the vocabulary
+	 * or has no counts left, so that a word whose counts were all removed is
+	 * unknown again before it is pruned.
+	 */
+	@Override
+	public int find(String word) {
+		int id = indexOf(word);
+		return id >= 0 && spamCounts[id] == 0 && hamCounts[id] == 0 ? -1 : id;
+	}
+
+	/**
+	 * Return the id of the word held in the first len chars of the given
+	 * buffer, or -1 if it is not in the vocabulary or has no counts left.
+	 * 
+	 * @param h
+	 *            the {@link String#hashCode()} of the word
+	 */
+	@Override
+	public int find(char[] buf, int len, int h) {
+		int id = indexOf(buf, len, h);
+		return id >= 0 && spamCounts[id] == 0 && hamCounts[id] == 0 ? -1 : id;
+	}
+
+	/**
+	 * Return the id of the given word, or -1 if it is not in the vocabulary,
+	 * whether or not it has counts.
+	 */
+	private int indexOf(String word) {
+		int h = word.hashCode();
+		int mask = slots.length - 1;
+		for (int i = mix(h) & mask;; i = (i + 1) & mask) {
+			int id = slots[i] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (hashes[id] == h && words[id].equals(word)) {
+				return id;
+			}
+		}
+	}
+
+	private int indexOf(char[] buf, int len, int h) {
+		int mask = slots.length - 1;
+		for (int i = mix(h) & mask;; i = (i + 1) & mask) {
+			int id = slots[i] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (hashes[id] == h && matches(words[id], buf, len)) {
+				return id;
+			}
+		}
+	}
+
+	private static boolean matches(String word, char[] buf, int len) {
+		if (word.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (word.charAt(i) != buf[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the id of the given word, adding it with zero counts if it is not
+	 * in the vocabulary yet.
+	 */
+	int add(String word) {
+		int h = word.hashCode();
+		int mask = slots.length - 1;
+		int i = mix(h) & mask;
+		for (;; i = (i + 1) & mask) {
+			int id = slots[i] - 1;
+			if (id < 0) {
+				break;
+			}
+			if (hashes[id] == h && words[id].equals(word)) {
+				return id;
+			}
+		}
+		if (size == words.length) {
+			grow();
+			return add(word);
+		}
+		int id = size++;
+		words[id] = word;
+		wordChars += word.length();
+		emptyWords++;
+		hashes[id] = h;
+		slots[i] = id + 1;
+		return id;
+	}
+
+	/**
+	 * Return the id of the word held in the first len chars of the given
+	 * buffer, adding it with zero counts if it is not in the vocabulary yet.
+	 * Only a new word is copied into a String.
+	 * 
+	 * @param h
+	 *            the {@link String#hashCode()} of the word
+	 */
+	@Override
+	public int add(char[] buf, int len, int h) {
+		int id = indexOf(buf, len, h);
+		return id >= 0 ? id : add(new String(buf, 0, len));
+	}
+
+	private void grow() {
+		int capacity = words.length * 2;
+		words = Arrays.copyOf(words, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		spamCounts = Arrays.copyOf(spamCounts, capacity);
+		hamCounts = Arrays.copyOf(hamCounts, capacity);
+		probs = Arrays.copyOf(probs, capacity);
+		logOdds = Arrays.copyOf(logOdds, capacity);
+		slots = new int[capacity * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int i = mix(hashes[id]) & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = id + 1;
+		}
+	}
+
+	/**
+	 * A copy of this vocabulary that shares only the immutable word Strings.
+	 */
+	@Override
+	public Vocabulary copy() {
+		Vocabulary v = new Vocabulary(0);
+		v.slots = slots.clone();
+		v.words = words.clone();
+		v.hashes = hashes.clone();
+		v.spamCounts = spamCounts.clone();
+		v.hamCounts = hamCounts.clone();
+		v.probs = probs.clone();
+		v.logOdds = logOdds.clone();
+		v.size = size;
+		v.numSpamWords = numSpamWords;
+		v.numHamWords = numHamWords;
+		v.emptyWords = emptyWords;
+		v.maxCount = maxCount;
+		v.wordChars = wordChars;
+		v.spamSketch = spamSketch == null ? null : spamSketch.copy();
+		v.hamSketch = hamSketch == null ? null : hamSketch.copy();
+		return v;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	String word(int id) {
+		return words[id];
+	}
+
+	/**
+	 * The number of words whose counts have all been removed.
+	 */
+	int emptyWords() {
+		return emptyWords;
+	}
+
+	@Override
+	public int spamCount(int id) {
+		return spamCounts[id];
+	}
+
+	@Override
+	public int hamCount(int id) {
+		return hamCounts[id];
+	}
+
+	@Override
+	public Vocabulary empty() {
+		return new Vocabulary();
+	}
+
+	/**
+	 * The largest spam or ham count any word has had, which bounds how far a
+	 * single word can move the score of a message. Removing counts does not
+	 * lower it, so it stays a bound.
+	 */
+	@Override
+	public int maxCount() {
+		return maxCount;
+	}
+
+	/**
+	 * The probability that a message containing the word is spam, clamped to
+	 * 0.95 and 0.05 for words seen in only one class.
+	 */
+	@Override
+	public double prob(int id) {
+		return probs[id];
+	}
+
+	/**
+	 * log(prob / (1 - prob)), with the same clamping as {@link #prob(int)}.
+	 */
+	@Override
+	public double logOdds(int id) {
+		return logOdds[id];
+	}
+
+	@Override
+	public void addSpam(int id, int n) {
+		int before = spamCounts[id];
+		int after = Math.max(0, before + n);
+		if ((before == 0) != (after == 0)) {
+			numSpamWords += after > 0 ? 1 : -1;
+			if (hamCounts[id] == 0) {
+				emptyWords += after > 0 ? -1 : 1;
+			}
+		}
+		spamCounts[id] = after;
+		maxCount = Math.max(maxCount, after);
+		rescore(id);
+		if (spamSketch != null) {
+			spamSketch.add(hashes[id], after - before);
+		}
+	}
+
+	@Override
+	public void addHam(int id, int n) {
+		int before = hamCounts[id];
+		int after = Math.max(0, before + n);
+		if ((before == 0) != (after == 0)) {
+			numHamWords += after > 0 ? 1 : -1;
+			if (spamCounts[id] == 0) {
+				emptyWords += after > 0 ? -1 : 1;
+			}
+		}
+		hamCounts[id] = after;
+		maxCount = Math.max(maxCount, after);
+		rescore(id);
+		if (hamSketch != null) {
+			hamSketch.add(hashes[id], after - before);
+		}
+	}
+
+	private void rescore(int id) {
+		int spam = spamCounts[id];
+		int ham = hamCounts[id];
+		if (spam == 0 && ham == 0) {
+			probs[id] = 0.5;
+			logOdds[id] = 0;
+		} else if (ham == 0) {
+			probs[id] = 0.95;
+			logOdds[id] = LOG_ODDS_CLAMP;
+		} else if (spam == 0) {
+			probs[id] = 0.05;
+			logOdds[id] = -LOG_ODDS_CLAMP;
+		} else {
+			probs[id] = (double) spam / (spam + ham);
+			logOdds[id] = Math.log((double) spam / ham);
+		}
+	}
+
+	/**
+	 * Add all the counts of the other vocabulary to this one.
+	 */
+	@Override
+	public void addAll(FeatureTable table) {
+		Vocabulary other = (Vocabulary) table;
+		for (int j = 0; j < other.size; j++) {
+			int id = add(other.words[j]);
+			addSpam(id, other.spamCounts[j]);
+			addHam(id, other.hamCounts[j]);
+		}
+	}
+
+	/**
+	 * Remove every word that occurs in fewer than minDocFrequency messages,
+	 * spam and ham together. The remaining words get new, still dense, ids.
+	 * 
+	 * @return the number of words removed
+	 */
+	int prune(int minDocFrequency) {
+		return retain(minDocFrequency - 1L, 0);
+	}
+
+	/**
+	 * Keep the words found in more than floor messages, and the last atFloor
+	 * words found in exactly floor messages, which are the ones added most
+	 * recently.
+	 * 
+	 * @return the number of words removed
+	 */
+	private int retain(long floor, int atFloor) {
+		int tied = 0;
+		for (int id = 0; id < size; id++) {
+			if ((long) spamCounts[id] + hamCounts[id] == floor) {
+				tied++;
+			}
+		}
+		// the oldest tied words, with the lowest ids, are evicted
+		int evict = tied - atFloor;
+		int kept = 0;
+		numSpamWords = 0;
+		numHamWords = 0;
+		emptyWords = 0;
+		maxCount = 0;
+		wordChars = 0;
+		for (int id = 0; id < size; id++) {
+			int spam = spamCounts[id];
+			int ham = hamCounts[id];
+			long frequency = (long) spam + ham;
+			if (frequency < floor || frequency == floor && evict-- > 0) {
+				continue;
+			}
+			words[kept] = words[id];
+			wordChars += words[id].length();
+			hashes[kept] = hashes[id];
+			spamCounts[kept] = spam;
+			hamCounts[kept] = ham;
+			probs[kept] = probs[id];
+			logOdds[kept] = logOdds[id];
+			numSpamWords += spam > 0 ? 1 : 0;
+			numHamWords += ham > 0 ? 1 : 0;
+			emptyWords += spam == 0 && ham == 0 ? 1 : 0;
+			maxCount = Math.max(maxCount, Math.max(spam, ham));
+			kept++;
+		}
+		int removed = size - kept;
+		// new words start from zero counts in the freed ids
+		Arrays.fill(words, kept, size, null);
+		Arrays.fill(spamCounts, kept, size, 0);
+		Arrays.fill(hamCounts, kept, size, 0);
+		size = kept;
+		int capacity = MIN_CAPACITY;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		if (capacity < words.length) {
+			// shrink by rebuilding at the smaller capacity
+			words = Arrays.copyOf(words, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			spamCounts = Arrays.copyOf(spamCounts, capacity);
+			hamCounts = Arrays.copyOf(hamCounts, capacity);
+			probs = Arrays.copyOf(probs, capacity);
+			logOdds = Arrays.copyOf(logOdds, capacity);
+		}
+		slots = new int[words.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int i = mix(hashes[id]) & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = id + 1;
+		}
+		return removed;
+	}
+
+	/**
+	 * If there are more than maxWords words, prune the rarest ones so that at
+	 * most three quarters of maxWords remain, and a vocabulary that keeps
+	 * growing is pruned only once in a while.
+	 * 
+	 * @return the number of words removed
+	 */
+	int pruneTo(int maxWords) {
+		if (size <= maxWords) {
+			return 0;
+		}
+		int target = maxWords - maxWords / 4;
+		long[] frequencies = new long[size];
+		for (int id = 0; id < size; id++) {
+			frequencies[id] = (long) spamCounts[id] + hamCounts[id];
+		}
+		Arrays.sort(frequencies);
+		// keep the target most frequent words; of those tied with the least
+		// frequent one kept, the words added last win, so that the new words
+		// of an online model are not always crowded out by old ones
+		int first = size - target;
+		long floor = frequencies[first];
+		int above = size - first;
+		while (above > 0 && frequencies[size - above] == floor) {
+			above--;
+		}
+		return retain(floor, target - above);
+	}
+
+	/**
+	 * Keep approximate counts of every word added from now on in count-min
+	 * sketches with the given error bounds, or stop keeping them if epsilon is
+	 * 0.
+	 */
+	void setSketch(double epsilon, double delta) {
+		if (epsilon == 0) {
+			spamSketch = null;
+			hamSketch = null;
+		} else {
+			spamSketch = new CountMinSketch(epsilon, delta);
+			hamSketch = new CountMinSketch(epsilon, delta);
+		}
+	}
+
+	/**
+	 * The number of spam messages containing the given word: the exact count
+	 * if the word is in the vocabulary, otherwise the sketch estimate, or 0
+	 * without a sketch.
+	 */
+	@Override
+	public int spamCount(String word) {
+		int id = indexOf(word);
+		if (id >= 0) {
+			return spamCounts[id];
+		}
+		return spamSketch == null ? 0 : spamSketch.estimate(word.hashCode());
+	}
+
+	/**
+	 * The number of ham messages containing the given word, like
+	 * {@link #spamCount(String)}.
+	 */
+	@Override
+	public int hamCount(String word) {
+		int id = indexOf(word);
+		if (id >= 0) {
+			return hamCounts[id];
+		}
+		return hamSketch == null ? 0 : hamSketch.estimate(word.hashCode());
+	}
+
+	/**
+	 * An estimate of the memory taken by the counts, in bytes: the words, the
+	 * table and the per-word arrays, plus the sketches.
+	 */
+	@Override
+	public long sizeInBytes() {
+		// a String of n chars is about 40 + 2n bytes on a 64-bit JVM
+		long bytes = 4L * slots.length + (4 + 4 + 4 + 4 + 8 + 8) * words.length;
+		bytes += 40L * size + 2 * wordChars;
+		CountMinSketch spam = spamSketch;
+		CountMinSketch ham = hamSketch;
+		if (spam != null && ham != null) {
+			bytes += spam.sizeInBytes() + ham.sizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * A read-only view of the words that occur in at least one spam message.
+	 */
+	Set<String> spamWords() {
+		return new WordSet(SPAM);
+	}
+
+	/**
+	 * A read-only view of the words that occur in at least one ham message.
+	 */
+	Set<String> hamWords() {
+		return new WordSet(HAM);
+	}
+
+	/**
+	 * A read-only view of all the words, spam or ham.
+	 */
+	Set<String> allWords() {
+		return new WordSet(ALL);
+	}
+
+	private static final int SPAM = 0;
+	private static final int HAM = 1;
+	private static final int ALL = 2;
+
+	private final class WordSet extends AbstractSet<String> {
+		private final int kind;
+
+		WordSet(int kind) {
+			this.kind = kind;
+		}
+
+		private int count(int id) {
+			switch (kind) {
+			case SPAM:
+				return spamCounts[id];
+			case HAM:
+				return hamCounts[id];
+			default:
+				return spamCounts[id] | hamCounts[id];
+			}
+		}
+
+		@Override
+		public int size() {
+			switch (kind) {
+			case SPAM:
+				return numSpamWords;
+			case HAM:
+				return numHamWords;
+			default:
+				return size - emptyWords;
+			}
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof String)) {
+				return false;
+			}
+			int id = find((String) o);
+			return id >= 0 && count(id) > 0;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int next = advance(0);
+
+				private int advance(int id) {
+					while (id < size && count(id) == 0) {
+						id++;
+					}
+					return id;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next < size;
+				}
+
+				@Override
+				public String next() {
+					if (next >= size) {
+						throw new NoSuchElementException();
+					}
+					String word = words[next];
+					next = advance(next + 1);
+					return word;
+				}
+			};
+		}
+	}
+}
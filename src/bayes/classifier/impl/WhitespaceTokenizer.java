@@ -0,0 +1,168 @@
+package bayes.classifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * The default {@link Tokenizer}: splits a stream into whitespace separated
+ * tokens, the same tokens that {@link java.util.Scanner#next()} returns with
+ * its default delimiter, without allocating per token.
+ * <p>
+ * The bytes are read in large blocks and decoded with the platform charset
+ * into a reused buffer, and the token boundaries are found by a plain scan of
+ * that buffer rather than by matching a delimiter pattern.
+ */
+public final class WhitespaceTokenizer implements Tokenizer {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final CharsetDecoder decoder = Charset.defaultCharset()
+			.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final byte[] byteArray = new byte[BUFFER_SIZE];
+	private final ByteBuffer bytes = ByteBuffer.wrap(byteArray);
+	private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	private char[] token = new char[64];
+	private int length;
+	private int hash;
+	private int maxLength = Integer.MAX_VALUE;
+	private InputStream in;
+	private boolean eof;
+	private boolean decoded;
+	private boolean flushed;
+
+	@Override
+	public void reset(InputStream in) {
+		this.in = in;
+		this.decoder.reset();
+		this.bytes.clear().flip();
+		this.chars.clear().flip();
+		this.length = 0;
+		this.eof = in == null;
+		this.decoded = this.flushed = in == null;
+	}
+
+	/**
+	 * The class and the charset, the only thing that changes the tokens.
+	 */
+	@Override
+	public String cacheIdentity() {
+		return getClass().getName() + " " + decoder.charset().name();
+	}
+
+	@Override
+	public void setMaxLength(int max) {
+		if (max < 0) {
+			throw new IllegalArgumentException(
+					"Maximum token length must not be negative: " + max);
+		}
+		this.maxLength = max == 0 ? Integer.MAX_VALUE : max;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		int len = 0;
+		int h = 0;
+		int max = maxLength;
+		while (true) {
+			if (!chars.hasRemaining() && !fill()) {
+				break;
+			}
+			char[] a = chars.array();
+			int pos = chars.position();
+			int limit = chars.limit();
+			while (pos < limit) {
+				char c = a[pos];
+				if (Character.isWhitespace(c)) {
+					if (len > 0) {
+						chars.position(pos + 1);
+						return found(len, h);
+					}
+				} else if (len < max) {
+					if (len == token.length) {
+						token = Arrays.copyOf(token, len * 2);
+					}
+					token[len++] = c;
+					h = 31 * h + c;
+				}
+				pos++;
+			}
+			chars.position(pos);
+		}
+		return len > 0 && found(len, h);
+	}
+
+	private boolean found(int len, int h) {
+		this.length = len;
+		this.hash = h;
+		return true;
+	}
+
+	/**
+	 * Decode the next chunk of the stream into the char buffer.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		chars.clear();
+		while (!flushed) {
+			if (!eof) {
+				bytes.compact();
+				int n = in.read(byteArray, bytes.position(), bytes.remaining());
+				if (n < 0) {
+					eof = true;
+				} else {
+					bytes.position(bytes.position() + n);
+				}
+				bytes.flip();
+			}
+			if (!decoded) {
+				CoderResult r = decoder.decode(bytes, chars, eof);
+				decoded = eof && r.isUnderflow();
+			}
+			if (decoded) {
+				flushed = decoder.flush(chars).isUnderflow();
+			}
+			if (chars.position() > 0) {
+				break;
+			}
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+
+	@Override
+	public char[] chars() {
+		return token;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public int hash() {
+		return hash;
+	}
+
+	@Override
+	public String token() {
+		return new String(token, 0, length);
+	}
+
+	/**
+	 * The undecoded bytes and unscanned chars in the buffers. A byte never
+	 * decodes to more than one char in the charsets used for mail.
+	 */
+	@Override
+	public int pending() {
+		return bytes.remaining() + chars.remaining();
+	}
+}
@@ -0,0 +1,77 @@
+package bayes.classifier.impl;
+
+/**
+ * Walks the words of a {@link SpamClassifier} together with their counts,
+ * without copying the vocabulary or creating an object per word:
+ * 
+ * <pre>
+ * WordCursor words = classifier.words();
+ * while (words.next()) {
+ * 	dump(words.word(), words.spamCount(), words.hamCount());
+ * }
+ * </pre>
+ * 
+ * Words come in the order they were first seen. The classifier must not be
+ * trained or pruned while it is being walked.
+ */
+public final class WordCursor {
+	private final Vocabulary vocabulary;
+	private final int size;
+	private int id = -1;
+
+	/**
+	 * @param vocabulary
+	 *            the words to walk, or null for none
+	 */
+	WordCursor(Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+		this.size = vocabulary == null ? 0 : vocabulary.size();
+	}
+
+	/**
+	 * Move to the next word.
+	 * 
+	 * @return false if there are no more words
+	 */
+	public boolean next() {
+		if (id < size) {
+			id++;
+		}
+		// skip words whose counts were all removed
+		while (id < size && vocabulary.spamCount(id) == 0
+				&& vocabulary.hamCount(id) == 0) {
+			id++;
+		}
+		return id < size;
+	}
+
+	/**
+	 * The current word.
+	 */
+	public String word() {
+		check();
+		return vocabulary.word(id);
+	}
+
+	/**
+	 * The number of spam messages containing the current word.
+	 */
+	public int spamCount() {
+		check();
+		return vocabulary.spamCount(id);
+	}
+
+	/**
+	 * The number of ham messages containing the current word.
+	 */
+	public int hamCount() {
+		check();
+		return vocabulary.hamCount(id);
+	}
+
+	private void check() {
+		if (id < 0 || id >= size) {
+			throw new IllegalStateException("No current word");
+		}
+	}
+}
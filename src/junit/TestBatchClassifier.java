@@ -0,0 +1,149 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.BatchClassifier;
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.Tokenizer;
+import bayes.classifier.impl.WhitespaceTokenizer;
+
+public class TestBatchClassifier
+{
+    SpamClassifier f;
+    Path dir;
+    List<Path> messages;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+
+        String[] words = {"please", "message", "me", "a", "legitimate", "foo", "money", "sentence", "unknown"};
+        dir = Files.createTempDirectory("batch");
+        messages = new ArrayList<Path>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j <= i % 13; j++) {
+                sb.append(words[(i * 7 + j * 3) % words.length]).append(' ');
+            }
+            Path p = dir.resolve("m" + i);
+            Files.write(p, sb.toString().getBytes());
+            messages.add(p);
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (Path p : messages) {
+            Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testInputOrder() throws Exception
+    {
+        List<Double> scores = new BatchClassifier(f, 3, 5).classifyAll(messages);
+        assertEquals(messages.size(), scores.size());
+        for (int i = 0; i < messages.size(); i++) {
+            try (InputStream in = Files.newInputStream(messages.get(i))) {
+                assertEquals(f.probSpamForMessage(in), scores.get(i), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultPool() throws Exception
+    {
+        assertEquals(messages.size(), f.classifyAll(messages).size());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception
+    {
+        messages.add(250, dir.resolve("missing"));
+        final List<Long> failed = new ArrayList<Long>();
+        final List<Long> scored = new ArrayList<Long>();
+        new BatchClassifier(f, 2, 4).classifyAll(messages, new BatchClassifier.Listener() {
+            public void scored(long index, Path message, double score) {
+                scored.add(index);
+            }
+            public void failed(long index, Path message, IOException e) {
+                failed.add(index);
+            }
+        });
+        assertEquals(1, failed.size());
+        assertEquals(250L, (long) failed.get(0));
+        assertEquals(messages.size() - 1, scored.size());
+        for (int i = 1; i < scored.size(); i++) {
+            assertEquals(true, scored.get(i) > scored.get(i - 1));
+        }
+        messages.remove(250);
+    }
+
+    @Test
+    public void testMissingFileEndsBatchByDefault() throws Exception
+    {
+        List<Path> withMissing = new ArrayList<Path>(messages);
+        withMissing.add(10, dir.resolve("missing"));
+        try {
+            new BatchClassifier(f, 2, 4).classifyAll(withMissing);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout=30000, expected=StackOverflowError.class)
+    public void testErrorEndsBatch() throws Exception
+    {
+        Files.write(messages.get(100), "please BOOM".getBytes());
+        f.setTokenizer(() -> new Tokenizer() {
+            private final Tokenizer delegate = new WhitespaceTokenizer();
+
+            public void reset(InputStream in) {
+                delegate.reset(in);
+            }
+
+            public boolean next() throws IOException {
+                boolean more = delegate.next();
+                if (more && delegate.token().equals("BOOM")) {
+                    throw new StackOverflowError();
+                }
+                return more;
+            }
+
+            public char[] chars() {
+                return delegate.chars();
+            }
+
+            public int length() {
+                return delegate.length();
+            }
+
+            public int hash() {
+                return delegate.hash();
+            }
+
+            public String token() {
+                return delegate.token();
+            }
+        });
+        new BatchClassifier(f, 3, 5).classifyAll(messages);
+    }
+}
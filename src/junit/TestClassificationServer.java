@@ -0,0 +1,150 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ClassificationServer;
+import bayes.classifier.impl.LoadGenerator;
+import bayes.classifier.impl.ScoringLimits;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestClassificationServer
+{
+    SpamClassifier f;
+    Path model;
+    ClassificationServer server;
+
+    public static InputStream stringToInputStream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        f.setThreshold(0.5);
+        model=Files.createTempFile("model", ".bin");
+        f.save(model);
+        server=new ClassificationServer(model,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+        server.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.close();
+        Files.delete(model);
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getPort() + path);
+    }
+
+    private String post(String path, String body) throws Exception {
+        HttpURLConnection c=(HttpURLConnection) url(path).openConnection();
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        try (OutputStream out=c.getOutputStream()) {
+            out.write(body.getBytes("UTF-8"));
+        }
+        assertEquals(200, c.getResponseCode());
+        ByteArrayOutputStream answer=new ByteArrayOutputStream();
+        try (InputStream in=c.getInputStream()) {
+            byte[] buf=new byte[512];
+            int n;
+            while ((n=in.read(buf)) >= 0) {
+                answer.write(buf, 0, n);
+            }
+        }
+        return answer.toString("UTF-8");
+    }
+
+    private String verdict(String message) {
+        double score=f.probSpamForMessage(stringToInputStream(message));
+        return "{\"score\":" + score + ",\"spam\":" + (score > 0.5) + "}\n";
+    }
+
+    @Test
+    public void testClassify() throws Exception {
+        assertEquals(verdict("buy replica watches"), post("/classify", "buy replica watches"));
+        assertEquals(verdict("totally legitimate ham"), post("/classify", "totally legitimate ham"));
+        assertTrue(post("/classify", "Nigerian money").contains("\"spam\":true"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        String[] messages={ "buy replica watches", "", "please send me a ham sandwich\r\n" };
+        StringBuilder batch=new StringBuilder();
+        StringBuilder expected=new StringBuilder();
+        for (String m : messages) {
+            batch.append(m.length()).append('\n').append(m);
+            expected.append(verdict(m));
+        }
+        assertEquals(expected.toString(), post("/batch", batch.toString()));
+        assertEquals("", post("/batch", ""));
+        assertEquals(verdict("foo") + "{\"error\":\"bad message length\"}\n",
+                post("/batch", "3\nfooxyz\nfoo"));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        assertTrue(post("/classify", "buy replica watches").contains("\"spam\":true"));
+        f.setThreshold(1.0);
+        f.save(model);
+        assertTrue(post("/reload", "").startsWith("reloaded"));
+        assertEquals(1.0, server.model().getThreshold(), 0);
+        assertTrue(post("/classify", "buy replica watches").contains("\"spam\":false"));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        assertFalse(post("/classify", "buy replica watches").contains("truncated"));
+        server.setScoringLimits(ScoringLimits.NONE.withMaxTokens(2));
+        // the limits apply per request and leave the shared model alone
+        assertTrue(server.model().getScoringLimits().isNone());
+        assertTrue(post("/classify", "buy replica watches").endsWith(",\"truncated\":true}\n"));
+        assertFalse(post("/classify", "buy replica").contains("truncated"));
+        post("/reload", "");
+        assertTrue(post("/batch", "19\nbuy replica watches").contains("\"truncated\":true"));
+    }
+
+    @Test
+    public void testOnlyPost() throws Exception {
+        HttpURLConnection c=(HttpURLConnection) url("/classify").openConnection();
+        assertEquals(405, c.getResponseCode());
+        assertEquals("POST", c.getHeaderField("Allow"));
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        List<Path> messages=new ArrayList<>();
+        for (File m : new File("docs/basictest/spam").listFiles()) {
+            messages.add(m.toPath());
+        }
+        LoadGenerator.Result result=new LoadGenerator(url("/classify"), 3).run(messages, 50);
+        assertEquals(0, result.getErrors());
+        assertEquals(50, result.getLatencies().getCount());
+        assertTrue(result.getLatencies().getValueAtQuantile(0.99) >= result.getLatencies().getValueAtQuantile(0.5));
+        assertTrue(result.toString().contains("p99"));
+    }
+}
@@ -0,0 +1,120 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ClassifierMetrics;
+import bayes.classifier.impl.Histogram;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestClassifierMetrics
+{
+    SpamClassifier f;
+    ClassifierMetrics metrics;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        metrics=f.enableMetrics();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testCounts() throws Exception
+    {
+        assertSame(metrics, f.enableMetrics());
+        assertEquals(5, metrics.getMessagesTrained());
+        f.probSpamForMessage(stringToInputStream("please message me"));
+        f.probSpamForMessage(stringToInputStream("foo foo unknownword"));
+        assertEquals(2, metrics.getMessagesScored());
+        assertEquals(6, metrics.getTokensScored());
+        assertEquals(1, metrics.getUnknownTokens());
+        assertEquals(3.0, metrics.getMeanTokensPerMessage(), EPSILON);
+        assertEquals(3, metrics.getMaxTokensPerMessage());
+        assertEquals(2, metrics.getScoreLatency().getCount());
+        assertTrue(metrics.getScoreLatency().getMax() > 0);
+        assertEquals(5, metrics.getTrainLatency().getCount());
+
+        assertNull(f.probSpamGivenWord("nope"));
+        f.probSpamGivenWord("foo");
+        assertEquals(2, metrics.getUnknownTokens());
+        assertEquals(2.0 / 8, metrics.getUnknownTokenRatio(), EPSILON);
+
+        assertEquals(f.getAllWords().size(), metrics.getVocabularySize());
+        assertEquals(f.getVocabularySizeInBytes(), metrics.getEstimatedModelBytes());
+
+        metrics.reset();
+        assertEquals(0, metrics.getMessagesScored());
+        assertEquals(0, metrics.getScoreLatency().getCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        f.disableMetrics();
+        assertNull(f.getMetrics());
+        f.probSpamForMessage(stringToInputStream("please message me"));
+        f.addSpamFile(stringToInputStream("more spam"));
+        assertEquals(0, metrics.getMessagesScored());
+        assertEquals(5, metrics.getMessagesTrained());
+    }
+
+    @Test
+    public void testJmx() throws Exception
+    {
+        ObjectName name=metrics.register("test");
+        try {
+            f.probSpamForMessage(stringToInputStream("please message me"));
+            MBeanServer server=ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "MessagesScored"));
+            assertEquals(5L, server.getAttribute(name, "MessagesTrained"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "MessagesScored"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testHistogram() throws Exception
+    {
+        Histogram h=new Histogram();
+        assertEquals(0, h.getValueAtQuantile(0.5));
+        for (long v = 1; v <= 1000000; v++) {
+            h.record(v);
+        }
+        assertEquals(1000000, h.getCount());
+        assertWithin(500000, h.getValueAtQuantile(0.5));
+        assertWithin(990000, h.getValueAtQuantile(0.99));
+        assertWithin(1000000, h.getMax());
+        assertEquals(1, h.getValueAtQuantile(0));
+        h.record(Long.MAX_VALUE);
+        assertWithin(Long.MAX_VALUE, h.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " for " + expected, actual <= expected
+                && actual >= expected - expected / 16);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,160 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import bayes.classifier.impl.ConcurrentSpamClassifier;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestConcurrentSpamClassifier
+{
+    private static final int SCORERS = 4;
+    private static final int TRAINERS = 3;
+    private static final int MESSAGES = 300;
+
+    @Test
+    public void testInitialModel() throws Exception
+    {
+        SpamClassifier f = new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        ConcurrentSpamClassifier c = new ConcurrentSpamClassifier(f);
+        assertEquals(f.probSpamForMessage(stringToInputStream("please message me")),
+                c.probSpamForMessage(stringToInputStream("please message me")), 0.000001);
+
+        c.addSpamFile(stringToInputStream("please please"));
+        // training is published in batches
+        assertEquals(2, c.snapshot().getNumSpamOccurrences("please"));
+        c.publish();
+        assertEquals(3, c.snapshot().getNumSpamOccurrences("please"));
+        // the model it started from is left alone
+        assertEquals(2, f.getNumSpamOccurrences("please"));
+    }
+
+    @Test
+    public void testPublishInterval() throws Exception
+    {
+        ConcurrentSpamClassifier c = new ConcurrentSpamClassifier();
+        c.setPublishInterval(2);
+        c.addSpamFile(stringToInputStream("cheap pills"));
+        assertEquals(0, c.snapshot().getNumSpamOccurrences("cheap"));
+        c.addHamFile(stringToInputStream("lunch"));
+        assertEquals(1, c.snapshot().getNumSpamOccurrences("cheap"));
+        c.addSpamFile(stringToInputStream("cheap watches"));
+        c.publish();
+        assertEquals(2, c.snapshot().getNumSpamOccurrences("cheap"));
+    }
+
+    @Test
+    public void testPublishDelay() throws Exception
+    {
+        ConcurrentSpamClassifier c = new ConcurrentSpamClassifier();
+        c.setPublishDelay(60000);
+        c.addSpamFile(stringToInputStream("cheap pills"));
+        assertEquals(0, c.snapshot().getNumSpamOccurrences("cheap"));
+        // the tail is published once due, without more training
+        c.setPublishDelay(50);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (c.snapshot().getNumSpamOccurrences("cheap") == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, c.snapshot().getNumSpamOccurrences("cheap"));
+        c.setPublishDelay(0);
+        c.addSpamFile(stringToInputStream("cheap watches"));
+        assertEquals(2, c.snapshot().getNumSpamOccurrences("cheap"));
+    }
+
+    @Test
+    public void testScoringWhileTraining() throws Exception
+    {
+        final ConcurrentSpamClassifier c = new ConcurrentSpamClassifier();
+        c.setThreshold(0.5);
+        final AtomicBoolean training = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> scorers = new ArrayList<Thread>();
+        List<Thread> trainers = new ArrayList<Thread>();
+
+        for (int i = 0; i < SCORERS; i++) {
+            scorers.add(new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        while (training.get()) {
+                            double p = c.probSpamForMessage(stringToInputStream("win money now or lunch meeting tomorrow"));
+                            assertTrue("score " + p, Double.isNaN(p) || (p >= 0 && p <= 1));
+                            // every message contains "common", so a consistent model
+                            // counts it once per message
+                            SpamClassifier s = c.snapshot();
+                            assertEquals(s.getNumSpamMessages(), s.getNumSpamOccurrences("common"));
+                            assertEquals(s.getNumHamMessages(), s.getNumHamOccurrences("common"));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < TRAINERS; i++) {
+            final int trainer = i;
+            trainers.add(new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int m = 0; m < MESSAGES; m++) {
+                            if (m % 2 == 0) {
+                                c.addSpamFile(stringToInputStream("common win money now t" + trainer + "m" + m));
+                            } else {
+                                c.addHamFile(stringToInputStream("common lunch meeting tomorrow t" + trainer + "m" + m));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        for (Thread t : scorers) {
+            t.start();
+        }
+        for (Thread t : trainers) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : trainers) {
+            t.join();
+        }
+        training.set(false);
+        for (Thread t : scorers) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        c.publish();
+        SpamClassifier s = c.snapshot();
+        assertEquals(TRAINERS * MESSAGES / 2, s.getNumSpamMessages());
+        assertEquals(TRAINERS * MESSAGES / 2, s.getNumHamMessages());
+        assertEquals(TRAINERS * MESSAGES / 2, s.getNumSpamOccurrences("money"));
+        assertEquals(TRAINERS * MESSAGES / 2, s.getNumHamOccurrences("lunch"));
+        assertEquals(TRAINERS * MESSAGES + 7, s.getAllWords().size());
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,245 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.DirectoryIngester;
+import bayes.classifier.impl.IngestStats;
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.Tokenizer;
+import bayes.classifier.impl.WhitespaceTokenizer;
+
+public class TestCorpusCache
+{
+    public static final double EPSILON=0.000001;
+    Path dir;
+    Path spam;
+    Path ham;
+    Path cache;
+
+    public static InputStream stringToInputStream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("corpuscache");
+        spam = Files.createDirectories(dir.resolve("spam"));
+        ham = Files.createDirectories(dir.resolve("ham"));
+        cache = dir.resolve("cache");
+        Files.write(spam.resolve("1"), "cheap watches cheap".getBytes());
+        Files.write(spam.resolve("2"), "replica watches please".getBytes());
+        Files.write(ham.resolve("1"), "lunch please".getBytes());
+        Files.write(ham.resolve("2"), "the watches meeting".getBytes());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    /** Keeps the first chars of each token, cached only if it says so. */
+    private static class PrefixTokenizer implements Tokenizer {
+        private final Tokenizer delegate = new WhitespaceTokenizer();
+        private final int prefix;
+        private final boolean cached;
+        private int hash;
+
+        PrefixTokenizer(int prefix, boolean cached) {
+            this.prefix = prefix;
+            this.cached = cached;
+        }
+
+        public void reset(InputStream in) {
+            delegate.reset(in);
+        }
+
+        public boolean next() throws IOException {
+            if (!delegate.next()) {
+                return false;
+            }
+            hash = token().hashCode();
+            return true;
+        }
+
+        public char[] chars() {
+            return delegate.chars();
+        }
+
+        public int length() {
+            return Math.min(prefix, delegate.length());
+        }
+
+        public int hash() {
+            return hash;
+        }
+
+        public String token() {
+            return new String(chars(), 0, length());
+        }
+
+        public String cacheIdentity() {
+            return cached ? "prefix " + prefix : null;
+        }
+    }
+
+    private SpamClassifier train(Path cacheDir, int hashedBits) throws Exception {
+        SpamClassifier f = new SpamClassifier();
+        if (hashedBits > 0) {
+            f.setHashedFeatures(hashedBits);
+        }
+        f.setCorpusCache(cacheDir);
+        f.addAllSpamFilesInDirectory(spam.toFile());
+        f.addAllHamFilesInDirectory(ham.toFile());
+        return f;
+    }
+
+    private void assertSameModel(SpamClassifier expected, SpamClassifier actual) {
+        assertEquals(expected.getNumSpamMessages(), actual.getNumSpamMessages());
+        assertEquals(expected.getNumHamMessages(), actual.getNumHamMessages());
+        for (String w : new String[] { "cheap", "watches", "please", "lunch", "meeting" }) {
+            assertEquals(w, expected.getNumSpamOccurrences(w), actual.getNumSpamOccurrences(w));
+            assertEquals(w, expected.getNumHamOccurrences(w), actual.getNumHamOccurrences(w));
+        }
+        assertEquals(expected.probSpamForMessage(stringToInputStream("cheap watches please")),
+                actual.probSpamForMessage(stringToInputStream("cheap watches please")), EPSILON);
+    }
+
+    @Test
+    public void testCacheBuildsAndReplaysSameModel() throws Exception {
+        SpamClassifier plain = train(null, 0);
+        SpamClassifier building = train(cache, 0);
+        assertEquals(2, Files.list(cache).count());
+        SpamClassifier replayed = train(cache, 0);
+        assertSameModel(plain, building);
+        assertSameModel(plain, replayed);
+        assertEquals(plain.getAllWords(), replayed.getAllWords());
+    }
+
+    @Test
+    public void testHashedFeaturesReplay() throws Exception {
+        SpamClassifier plain = train(null, 4);
+        train(cache, 4);
+        assertSameModel(plain, train(cache, 4));
+    }
+
+    @Test
+    public void testUnchangedDirectoryReadsCache() throws Exception {
+        SpamClassifier f = new SpamClassifier();
+        DirectoryIngester in = new DirectoryIngester(f);
+        in.setCacheDirectory(cache);
+        IngestStats first = in.addAllSpamFiles(spam);
+        assertEquals(41, first.getBytes());
+        Path cacheFile = Files.list(cache).findFirst().get();
+        IngestStats second = in.addAllSpamFiles(spam);
+        assertEquals(Files.size(cacheFile), second.getBytes());
+        assertEquals(4, f.getNumSpamOccurrences("watches"));
+        assertEquals(4, f.getNumSpamMessages());
+    }
+
+    @Test
+    public void testChangedFilesRebuildCache() throws Exception {
+        train(cache, 0);
+        Files.write(spam.resolve("3"), "cheap loans".getBytes());
+        SpamClassifier added = train(cache, 0);
+        assertEquals(3, added.getNumSpamMessages());
+        assertEquals(2, added.getNumSpamOccurrences("cheap"));
+
+        Files.write(spam.resolve("3"), "fresh loans".getBytes());
+        Files.setLastModifiedTime(spam.resolve("3"), FileTime.fromMillis(0));
+        SpamClassifier touched = train(cache, 0);
+        assertEquals(1, touched.getNumSpamOccurrences("cheap"));
+        assertEquals(1, touched.getNumSpamOccurrences("fresh"));
+
+        Files.delete(spam.resolve("3"));
+        assertSameModel(train(null, 0), train(cache, 0));
+    }
+
+    @Test
+    public void testSameDirectoryAsSpamAndHam() throws Exception {
+        SpamClassifier f = new SpamClassifier();
+        f.setCorpusCache(cache);
+        f.addAllSpamFilesInDirectory(spam.toFile());
+        f.addAllHamFilesInDirectory(spam.toFile());
+        assertEquals(1, Files.list(cache).count());
+        assertEquals(2, f.getNumHamMessages());
+        assertEquals(2, f.getNumHamOccurrences("watches"));
+        assertEquals(0.5, f.probSpamForMessage(stringToInputStream("replica")), EPSILON);
+    }
+
+    @Test
+    public void testTokenizerConfigurationIsPartOfCache() throws Exception {
+        SpamClassifier f = new SpamClassifier();
+        f.setCorpusCache(cache);
+        f.setTokenizer(() -> new PrefixTokenizer(3, true));
+        f.addAllSpamFilesInDirectory(spam.toFile());
+        assertEquals(2, f.getNumSpamOccurrences("wat"));
+
+        SpamClassifier g = new SpamClassifier();
+        g.setCorpusCache(cache);
+        g.setTokenizer(() -> new PrefixTokenizer(5, true));
+        g.addAllSpamFilesInDirectory(spam.toFile());
+        assertEquals(0, g.getNumSpamOccurrences("wat"));
+        assertEquals(2, g.getNumSpamOccurrences("watch"));
+    }
+
+    @Test
+    public void testTokenizerWithoutIdentityIsNotCached() throws Exception {
+        SpamClassifier f = new SpamClassifier();
+        f.setCorpusCache(cache);
+        f.setTokenizer(() -> new PrefixTokenizer(3, false));
+        f.addAllSpamFilesInDirectory(spam.toFile());
+        assertFalse(Files.exists(cache));
+        assertEquals(2, f.getNumSpamOccurrences("wat"));
+        assertEquals(2, f.getNumSpamMessages());
+    }
+
+    @Test
+    public void testCollidingKeysKeepTheirCaches() throws Exception {
+        // "Aa" and "BB" have the same String hash code
+        Path aa = Files.createDirectories(dir.resolve("Aa"));
+        Path bb = Files.createDirectories(dir.resolve("BB"));
+        assertEquals(aa.toAbsolutePath().toString().hashCode(),
+                bb.toAbsolutePath().toString().hashCode());
+        Files.write(aa.resolve("1"), "cheap watches".getBytes());
+        Files.write(bb.resolve("1"), "replica pills".getBytes());
+        SpamClassifier f = new SpamClassifier();
+        DirectoryIngester in = new DirectoryIngester(f);
+        in.setCacheDirectory(cache);
+        in.addAllSpamFiles(aa);
+        in.addAllHamFiles(bb);
+        assertEquals(2, Files.list(cache).count());
+        IngestStats replayed = in.addAllSpamFiles(aa);
+        assertTrue(replayed.getBytes() > "cheap watches".length());
+        assertEquals(2, f.getNumSpamOccurrences("cheap"));
+        assertEquals(1, f.getNumHamOccurrences("pills"));
+    }
+
+    @Test
+    public void testCorruptCacheIsAnError() throws Exception {
+        train(cache, 0);
+        Path cacheFile = Files.list(cache).findFirst().get();
+        byte[] data = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(data, data.length - 3));
+        try {
+            train(cache, 0);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("corpus cache"));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.CrossValidator;
+import bayes.classifier.impl.CrossValidator.FoldResult;
+import bayes.classifier.impl.CrossValidator.Report;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestCrossValidator
+{
+    Path dir;
+    List<Path> spam = new ArrayList<>();
+    List<Path> ham = new ArrayList<>();
+
+    static final String[] SPAM = {
+        "buy replica watches",
+        "Nigerian money please",
+        "enter your password",
+        "great foo prices",
+        "please send me a ham sandwich",
+        "buy cheap watches please",
+    };
+    static final String[] HAM = {
+        "foo bar is a great sentence",
+        "totally legitimate ham message",
+        "please send me a sentence",
+        "a great message",
+        "enter the bar",
+        "legitimate password",
+        "send the foo sentence",
+    };
+
+    @Before
+    public void setup() throws Exception {
+        dir=Files.createTempDirectory("crossvalidation");
+        for (int i = 0; i < SPAM.length; i++) {
+            spam.add(Files.write(dir.resolve("spam" + i), SPAM[i].getBytes()));
+        }
+        for (int i = 0; i < HAM.length; i++) {
+            ham.add(Files.write(dir.resolve("ham" + i), HAM[i].getBytes()));
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (Path p : spam) {
+            Files.delete(p);
+        }
+        for (Path p : ham) {
+            Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Classify every message with a model streamed from all the others.
+     */
+    private boolean[] leaveOneOut(SpamClassifier settings) throws Exception {
+        List<Path> all = new ArrayList<>(spam);
+        all.addAll(ham);
+        boolean[] isSpam = new boolean[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            SpamClassifier c = new SpamClassifier();
+            c.setMaxInterestingTokens(settings.getMaxInterestingTokens());
+            c.setThreshold(settings.getThreshold());
+            for (int j = 0; j < all.size(); j++) {
+                if (j == i) {
+                    continue;
+                }
+                try (FileInputStream in=new FileInputStream(all.get(j).toFile())) {
+                    if (j < spam.size()) {
+                        c.addSpamFile(in);
+                    } else {
+                        c.addHamFile(in);
+                    }
+                }
+            }
+            try (FileInputStream in=new FileInputStream(all.get(i).toFile())) {
+                isSpam[i]=c.isSpam(in);
+            }
+        }
+        return isSpam;
+    }
+
+    private void assertMatchesLeaveOneOut(SpamClassifier settings) throws Exception {
+        boolean[] expected=leaveOneOut(settings);
+        int tp=0, fp=0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i]) {
+                if (i < spam.size()) {
+                    tp++;
+                } else {
+                    fp++;
+                }
+            }
+        }
+        CrossValidator v=new CrossValidator(settings, SPAM.length + HAM.length);
+        FoldResult total=v.run(spam, ham).getTotal();
+        assertEquals(tp, total.getTruePositives());
+        assertEquals(fp, total.getFalsePositives());
+        assertEquals(SPAM.length - tp, total.getFalseNegatives());
+        assertEquals(HAM.length - fp, total.getTrueNegatives());
+    }
+
+    @Test
+    public void testLeaveOneOutMatchesRetraining() throws Exception {
+        assertMatchesLeaveOneOut(new SpamClassifier());
+    }
+
+    @Test
+    public void testLeaveOneOutWithInterestingTokens() throws Exception {
+        SpamClassifier settings=new SpamClassifier();
+        settings.setMaxInterestingTokens(2);
+        settings.setThreshold(0.6);
+        assertMatchesLeaveOneOut(settings);
+    }
+
+    @Test
+    public void testFoldsAreStratified() throws Exception {
+        CrossValidator v=new CrossValidator(new SpamClassifier(), 3);
+        v.setThreads(2);
+        Report report=v.run(spam, ham);
+        assertEquals(3, report.getFolds().size());
+        assertEquals(SPAM.length + HAM.length, report.getTotal().getMessages());
+        for (FoldResult f : report.getFolds()) {
+            assertEquals(2, f.getTruePositives() + f.getFalseNegatives());
+            int heldHam=f.getTrueNegatives() + f.getFalsePositives();
+            assertTrue(heldHam == 2 || heldHam == 3);
+        }
+    }
+
+    @Test
+    public void testSeedMakesRunsRepeatable() throws Exception {
+        CrossValidator v=new CrossValidator(new SpamClassifier(), 3);
+        v.setSeed(7);
+        String first=v.run(spam, ham).getFolds().toString().replaceAll(", \\d+ msg/s", "");
+        String second=v.run(spam, ham).getFolds().toString().replaceAll(", \\d+ msg/s", "");
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testGates() throws Exception {
+        Report report=new CrossValidator(new SpamClassifier(), 2).run(spam, ham);
+        assertTrue(report.meets(0, 0));
+        assertFalse(report.meets(1.01, 0));
+        assertFalse(report.meets(0, Double.POSITIVE_INFINITY));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNeedsTwoFolds() {
+        new CrossValidator(new SpamClassifier(), 1);
+    }
+}
@@ -0,0 +1,205 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ConcurrentSpamClassifier;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestDecay
+{
+    SpamClassifier f;
+    public static final double EPSILON=0.000001;
+
+    public static InputStream stringToInputStream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testRemoveUndoesAdd() throws Exception
+    {
+        Set<String> words = new HashSet<>(f.getAllWords());
+        double score = f.probSpamForMessage(stringToInputStream("please send cheap pills"));
+        f.addSpamFile(stringToInputStream("cheap pills please please"));
+        f.addHamFile(stringToInputStream("lunch at noon"));
+        assertEquals(4, f.getNumSpamMessages());
+        assertTrue(f.getAllWords().contains("pills"));
+
+        f.removeSpamFile(stringToInputStream("cheap pills please please"));
+        f.removeHamFile(stringToInputStream("lunch at noon"));
+        assertEquals(3, f.getNumSpamMessages());
+        assertEquals(2, f.getNumHamMessages());
+        assertEquals(words, new HashSet<>(f.getAllWords()));
+        assertEquals(words.size(), f.getAllWords().size());
+        assertFalse(f.getAllSpamWords().contains("pills"));
+        assertEquals(0, f.getNumSpamOccurrences("pills"));
+        assertEquals(score, f.probSpamForMessage(stringToInputStream("please send cheap pills")), EPSILON);
+    }
+
+    @Test
+    public void testRemovedWordIsUnknown() throws Exception
+    {
+        f.addSpamFile(stringToInputStream("rare common"));
+        f.addHamFile(stringToInputStream("common"));
+        f.removeSpamFile(stringToInputStream("rare common"));
+        f.enableMetrics();
+        assertNull(f.probSpamGivenWord("rare"));
+        assertEquals(1, f.getMetrics().getUnknownTokens());
+        assertEquals(0.0, f.probWord("rare"), 0);
+        assertEquals(0, f.getNumSpamOccurrences("rare"));
+        assertEquals(f.probSpamGivenWord("neverseen"), f.probSpamGivenWord("rare"));
+        assertEquals(f.probSpamForMessage(stringToInputStream("common")),
+                f.probSpamForMessage(stringToInputStream("rare common")), EPSILON);
+    }
+
+    @Test
+    public void testRemoveNeverGoesNegative() throws Exception
+    {
+        int please = f.getNumHamOccurrences("please");
+        f.removeHamFile(stringToInputStream("please please Nigerian"));
+        f.removeHamFile(stringToInputStream("please Nigerian"));
+        f.removeHamFile(stringToInputStream("please"));
+        assertEquals(0, f.getNumHamOccurrences("Nigerian"));
+        assertEquals(Math.max(0, please - 3), f.getNumHamOccurrences("please"));
+        assertEquals(0, f.getNumHamMessages());
+        assertEquals(1, f.getNumSpamOccurrences("Nigerian"));
+    }
+
+    @Test
+    public void testEpochsExpire() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setDecayWindow(2, 0);
+        assertEquals(2, c.getDecayEpochs());
+        c.addSpamFile(stringToInputStream("old campaign watches"));
+        c.addHamFile(stringToInputStream("old meeting"));
+        c.advanceEpoch();
+        c.addSpamFile(stringToInputStream("new campaign pills"));
+        assertEquals(2, c.getNumSpamOccurrences("campaign"));
+        assertEquals(2, c.getNumSpamMessages());
+
+        c.advanceEpoch();
+        assertEquals(1, c.getNumSpamMessages());
+        assertEquals(0, c.getNumHamMessages());
+        assertEquals(1, c.getNumSpamOccurrences("campaign"));
+        assertEquals(0, c.getNumSpamOccurrences("watches"));
+        assertFalse(c.getAllWords().contains("old"));
+        assertTrue(c.getAllWords().contains("pills"));
+
+        c.advanceEpoch();
+        assertEquals(0, c.getNumSpamMessages());
+        assertTrue(c.getAllWords().isEmpty());
+    }
+
+    @Test
+    public void testCountsBeforeDecayExpireToo() throws Exception
+    {
+        f.setDecayWindow(1, 0);
+        f.addSpamFile(stringToInputStream("fresh spam"));
+        f.advanceEpoch();
+        assertEquals(0, f.getNumSpamMessages());
+        assertEquals(0, f.getNumHamMessages());
+        assertTrue(f.getAllWords().isEmpty());
+    }
+
+    @Test
+    public void testDirectoriesDecay() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setDecayWindow(2, 0);
+        c.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        c.advanceEpoch();
+        c.setTrainingThreads(2);
+        c.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        c.advanceEpoch();
+        assertEquals(0, c.getNumSpamMessages());
+        assertEquals(2, c.getNumHamMessages());
+        assertEquals(0, c.getAllSpamWords().size());
+        assertEquals(f.getAllHamWords(), c.getAllHamWords());
+    }
+
+    @Test
+    public void testRemoveFromOlderEpoch() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setDecayWindow(3, 0);
+        c.addSpamFile(stringToInputStream("cheap watches"));
+        c.advanceEpoch();
+        c.addSpamFile(stringToInputStream("cheap pills"));
+        c.removeSpamFile(stringToInputStream("cheap watches"));
+        assertEquals(1, c.getNumSpamMessages());
+        assertEquals(1, c.getNumSpamOccurrences("cheap"));
+        // the removed counts come from the oldest epoch that has them, so
+        // expiring the first epoch leaves the second message's counts
+        c.advanceEpoch();
+        c.advanceEpoch();
+        assertEquals(1, c.getNumSpamMessages());
+        assertEquals(1, c.getNumSpamOccurrences("cheap"));
+        assertEquals(1, c.getNumSpamOccurrences("pills"));
+        c.advanceEpoch();
+        assertEquals(0, c.getNumSpamOccurrences("cheap"));
+        assertEquals(0, c.getNumSpamMessages());
+    }
+
+    @Test
+    public void testEpochsFollowTheClock() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setDecayWindow(1, 1);
+        c.addSpamFile(stringToInputStream("old campaign"));
+        Thread.sleep(10);
+        c.addSpamFile(stringToInputStream("new campaign"));
+        assertEquals(1, c.getNumSpamMessages());
+        assertEquals(1, c.getNumSpamOccurrences("campaign"));
+        assertEquals(0, c.getNumSpamOccurrences("old"));
+    }
+
+    @Test
+    public void testConcurrentClassifierDecays() throws Exception
+    {
+        ConcurrentSpamClassifier c = new ConcurrentSpamClassifier(f);
+        c.setDecayWindow(2, 0);
+        c.advanceEpoch();
+        c.addSpamFile(stringToInputStream("cheap watches"));
+        c.removeHamFile(stringToInputStream("enter the bar"));
+        c.publish();
+        assertEquals(4, c.snapshot().getNumSpamMessages());
+        assertEquals(1, c.snapshot().getNumHamMessages());
+        c.advanceEpoch();
+        assertEquals(1, c.snapshot().getNumSpamMessages());
+        assertEquals(0, c.snapshot().getNumHamMessages());
+        assertEquals(1, c.snapshot().getNumSpamOccurrences("watches"));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testHashedFeaturesCannotDecay()
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setHashedFeatures(8);
+        c.setDecayWindow(2, 0);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testAdvanceNeedsDecay()
+    {
+        f.advanceEpoch();
+    }
+}
@@ -0,0 +1,188 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.DirectoryIngester;
+import bayes.classifier.impl.IngestStats;
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.Tokenizer;
+import bayes.classifier.impl.WhitespaceTokenizer;
+
+public class TestDirectoryIngester
+{
+    Path dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("corpus");
+        Files.createDirectories(dir.resolve("2024/01"));
+        Files.write(dir.resolve("a.txt"), "cheap watches".getBytes());
+        Files.write(dir.resolve("b.eml"), "cheap pills".getBytes());
+        Files.write(dir.resolve("2024/c.txt"), "cheap loans".getBytes());
+        Files.write(dir.resolve("2024/01/d.txt"), "replica watches".getBytes());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    /** Fails part way through any message containing BOOM. */
+    private static class FailingTokenizer implements Tokenizer {
+        private final Tokenizer delegate = new WhitespaceTokenizer();
+
+        public void reset(InputStream in) {
+            delegate.reset(in);
+        }
+
+        public boolean next() throws IOException {
+            boolean more = delegate.next();
+            if (more && delegate.token().equals("BOOM")) {
+                throw new IOException("boom");
+            }
+            return more;
+        }
+
+        public char[] chars() {
+            return delegate.chars();
+        }
+
+        public int length() {
+            return delegate.length();
+        }
+
+        public int hash() {
+            return delegate.hash();
+        }
+
+        public String token() {
+            return delegate.token();
+        }
+    }
+
+    @Test
+    public void testTopLevelOnly() throws Exception
+    {
+        SpamClassifier f = new SpamClassifier();
+        IngestStats stats = new DirectoryIngester(f).addAllSpamFiles(dir);
+        assertEquals(2, stats.getFiles());
+        assertEquals(24, stats.getBytes());
+        assertEquals(2, f.getNumSpamMessages());
+        assertEquals(2, f.getNumSpamOccurrences("cheap"));
+    }
+
+    @Test
+    public void testFailedFileKeepsModelConsistent() throws Exception
+    {
+        Path failing = Files.createDirectory(dir.resolve("failing"));
+        Files.write(failing.resolve("1.txt"), "cheap watches".getBytes());
+        Files.write(failing.resolve("2.txt"), "cheap BOOM later".getBytes());
+        Files.write(failing.resolve("3.txt"), "cheap again".getBytes());
+
+        // serially, every message read so far is counted with its words
+        SpamClassifier f = new SpamClassifier();
+        f.setTokenizer(FailingTokenizer::new);
+        try {
+            new DirectoryIngester(f).addAllSpamFiles(failing);
+            fail("expected the failing file to throw");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, f.getNumSpamMessages());
+        assertEquals(2, f.getNumSpamOccurrences("cheap"));
+        assertEquals(0, f.getNumSpamOccurrences("again"));
+        for (String w : f.getAllWords()) {
+            assertTrue(f.probWord(w) <= 1);
+        }
+
+        // in shards, nothing is added unless every shard was read
+        SpamClassifier g = new SpamClassifier();
+        g.setTokenizer(FailingTokenizer::new);
+        g.setTrainingThreads(2);
+        try {
+            new DirectoryIngester(g).addAllSpamFiles(failing);
+            fail("expected the failing file to throw");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, g.getNumSpamMessages());
+        assertTrue(g.getAllWords().isEmpty());
+    }
+
+    @Test
+    public void testRecursiveGlob() throws Exception
+    {
+        SpamClassifier f = new SpamClassifier();
+        DirectoryIngester in = new DirectoryIngester(f);
+        in.setRecursive(true);
+        in.setGlob("*.txt");
+        assertEquals(3, in.addAllHamFiles(dir).getFiles());
+        assertEquals(2, f.getNumHamOccurrences("cheap"));
+        assertEquals(2, f.getNumHamOccurrences("watches"));
+
+        SpamClassifier g = new SpamClassifier();
+        in = new DirectoryIngester(g);
+        in.setRecursive(true);
+        in.setGlob("2024/**");
+        assertEquals(2, in.addAllHamFiles(dir).getFiles());
+        assertEquals(1, g.getNumHamOccurrences("replica"));
+    }
+
+    @Test
+    public void testMappedAndParallelReadsMatch() throws Exception
+    {
+        SpamClassifier buffered = new SpamClassifier();
+        DirectoryIngester in = new DirectoryIngester(buffered);
+        in.setRecursive(true);
+        in.addAllSpamFiles(dir);
+
+        SpamClassifier mapped = new SpamClassifier();
+        mapped.setTrainingThreads(3);
+        in = new DirectoryIngester(mapped);
+        in.setRecursive(true);
+        in.setMapThreshold(0);
+        in.addAllSpamFiles(dir);
+
+        assertEquals(buffered.getAllSpamWords(), mapped.getAllSpamWords());
+        for (String w : buffered.getAllSpamWords()) {
+            assertEquals(w, buffered.getNumSpamOccurrences(w), mapped.getNumSpamOccurrences(w));
+        }
+        assertEquals(buffered.getNumSpamMessages(), mapped.getNumSpamMessages());
+    }
+
+    @Test
+    public void testClosesFiles() throws Exception
+    {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.UnixOperatingSystemMXBean)) {
+            return;
+        }
+        com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+        Path many = dir.resolve("many");
+        Files.createDirectories(many);
+        for (int i = 0; i < 500; i++) {
+            Files.write(many.resolve("m" + i), ("message " + i).getBytes());
+        }
+        long before = unix.getOpenFileDescriptorCount();
+        SpamClassifier f = new SpamClassifier();
+        for (int i = 0; i < 4; i++) {
+            f.addAllSpamFilesInDirectory(new File(many.toString()));
+        }
+        assertTrue(unix.getOpenFileDescriptorCount() - before < 10);
+        assertEquals(2000, f.getNumSpamMessages());
+    }
+}
@@ -5,12 +5,15 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.file.Paths;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 //import bayes.classifier.sol.SpamClassifier;
+import bayes.classifier.impl.CrossValidator;
 import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.WordCursor;
 
 public class TestEnron
 {
@@ -28,10 +31,11 @@ public class TestEnron
         
         //find most common spam word
         int count = 0;
-        for(String s: f.getAllSpamWords()){
-        	if(f.getNumSpamOccurrences(s)>count){
-        		count = f.getNumSpamOccurrences(s);
-        		System.out.println(s + " " + count);
+        WordCursor words = f.words();
+        while(words.next()){
+        	if(words.spamCount()>count){
+        		count = words.spamCount();
+        		System.out.println(words.word() + " " + count);
         	}
         }
     }
@@ -71,6 +75,73 @@ public class TestEnron
         
     }
     
+    @Test
+    public void testPruningAccuracy() throws Exception {
+        SpamClassifier c=new SpamClassifier();
+        c.setThreshold(0.5);
+        c.addAllSpamFilesInDirectory(new File("docs/enron1/spam"));
+        c.addAllHamFilesInDirectory(new File("docs/enron1/ham"));
+        int words=c.getAllWords().size();
+        long bytes=c.getVocabularySizeInBytes();
+        double before=accuracy(c);
+        c.prune(3);
+        double after=accuracy(c);
+        System.out.println("pruned "+(words-c.getAllWords().size())+" of "+words+" words, "
+                +(bytes-c.getVocabularySizeInBytes())/1024+" KB saved, accuracy "
+                +before+" -> "+after+" ("+(after-before)+")");
+        assertTrue(after > before - 0.02);
+    }
+
+    @Test
+    public void testHashedFeaturesAccuracy() throws Exception {
+        SpamClassifier h=new SpamClassifier();
+        h.setHashedFeatures(18);
+        h.setThreshold(0.5);
+        h.addAllSpamFilesInDirectory(new File("docs/enron1/spam"));
+        h.addAllHamFilesInDirectory(new File("docs/enron1/ham"));
+        int collided=0;
+        for (String w : f.getAllWords()) {
+            if (h.getNumSpamOccurrences(w)!=f.getNumSpamOccurrences(w)
+                    || h.getNumHamOccurrences(w)!=f.getNumHamOccurrences(w)) {
+                collided++;
+            }
+        }
+        double exact=accuracy(f);
+        double hashed=accuracy(h);
+        System.out.println("hashed 2^18: "+collided+" of "+f.getAllWords().size()
+                +" words share counts, "+h.getVocabularySizeInBytes()/1024+" KB vs "
+                +f.getVocabularySizeInBytes()/1024+" KB, accuracy "+exact+" -> "+hashed);
+        assertTrue(hashed > exact - 0.02);
+    }
+
+    @Test
+    public void testCrossValidation() throws Exception {
+        SpamClassifier settings=new SpamClassifier();
+        settings.setThreshold(0.5);
+        CrossValidator.Report report=new CrossValidator(settings, 10)
+                .run(Paths.get("docs/enron1/spam"), Paths.get("docs/enron1/ham"));
+        System.out.println(report);
+        assertTrue(report.meets(0.9, 0));
+    }
+
+    private static double accuracy(SpamClassifier c) throws Exception {
+        int right=0;
+        int total=0;
+        for (File m : new File("docs/enron1/spamtest").listFiles()) {
+            try (FileInputStream in=new FileInputStream(m)) {
+                right+=c.isSpam(in) ? 1 : 0;
+            }
+            total++;
+        }
+        for (File m : new File("docs/enron1/hamtest").listFiles()) {
+            try (FileInputStream in=new FileInputStream(m)) {
+                right+=c.isSpam(in) ? 0 : 1;
+            }
+            total++;
+        }
+        return (double) right/total;
+    }
+
     @Test
     public void testFullSpam1() throws Exception {
         assertTrue(f.isSpam(new FileInputStream("docs/enron1/spamtest/0008.2003-12-18.GP.spam.txt")));
@@ -0,0 +1,138 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ConcurrentSpamClassifier;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestHashedFeatures
+{
+    SpamClassifier exact;
+    SpamClassifier hashed;
+    public static final double EPSILON=0.000001;
+
+    static final String[] MESSAGES = {
+        "please message me",
+        "please message me a legitimate foo",
+        "totally legitimate money",
+        "totally legitimate thisisnotarealword asdfasdf fasdfasdfasdf",
+    };
+
+    @Before
+    public void setup() throws Exception {
+        exact=train(0);
+        // with 2^20 buckets the few basictest words do not collide
+        hashed=train(20);
+    }
+
+    private static SpamClassifier train(int bits) throws Exception {
+        SpamClassifier c=new SpamClassifier();
+        c.setHashedFeatures(bits);
+        c.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        c.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        return c;
+    }
+
+    @Test
+    public void testSameAsExact() throws Exception
+    {
+        assertEquals(20, hashed.getHashedFeatureBits());
+        for (String m : MESSAGES) {
+            assertEquals(m, exact.probSpamForMessage(stringToInputStream(m)),
+                    hashed.probSpamForMessage(stringToInputStream(m)), EPSILON);
+        }
+        for (String w : exact.getAllWords()) {
+            assertEquals(w, exact.getNumSpamOccurrences(w), hashed.getNumSpamOccurrences(w));
+            assertEquals(w, exact.getNumHamOccurrences(w), hashed.getNumHamOccurrences(w));
+            assertEquals(w, exact.probSpamGivenWord(w), hashed.probSpamGivenWord(w));
+        }
+        assertNull(hashed.probSpamGivenWord("thisisnotarealword"));
+        assertTrue(hashed.getAllWords().isEmpty());
+        assertTrue(hashed.getAllSpamWords().isEmpty());
+    }
+
+    @Test
+    public void testFixedSize() throws Exception
+    {
+        SpamClassifier c=new SpamClassifier();
+        c.setHashedFeatures(4);
+        long bytes=c.getVocabularySizeInBytes();
+        StringBuilder m=new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            m.append("word").append(i).append(' ');
+        }
+        c.addSpamFile(stringToInputStream(m.toString()));
+        assertEquals(bytes, c.getVocabularySizeInBytes());
+        // 1000 words in 16 buckets: each bucket is counted once per message
+        assertEquals(1, c.getNumSpamOccurrences("word7"));
+        assertEquals(1, c.getNumSpamOccurrences("neverseen"));
+    }
+
+    @Test
+    public void testParallelTraining() throws Exception
+    {
+        SpamClassifier c=new SpamClassifier();
+        c.setHashedFeatures(20);
+        c.setTrainingThreads(3);
+        c.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        c.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        for (String m : MESSAGES) {
+            assertEquals(m, hashed.probSpamForMessage(stringToInputStream(m)),
+                    c.probSpamForMessage(stringToInputStream(m)), EPSILON);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception
+    {
+        Path file=Files.createTempFile("hashed", ".model");
+        try {
+            hashed.setThreshold(0.7);
+            hashed.save(file);
+            SpamClassifier loaded=SpamClassifier.load(file);
+            assertEquals(20, loaded.getHashedFeatureBits());
+            assertEquals(0.7, loaded.getThreshold(), EPSILON);
+            assertEquals(hashed.getNumSpamMessages(), loaded.getNumSpamMessages());
+            for (String m : MESSAGES) {
+                assertEquals(m, hashed.probSpamForMessage(stringToInputStream(m)),
+                        loaded.probSpamForMessage(stringToInputStream(m)), EPSILON);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testConcurrentTraining() throws Exception
+    {
+        SpamClassifier c=new SpamClassifier();
+        c.setHashedFeatures(20);
+        ConcurrentSpamClassifier cc=new ConcurrentSpamClassifier(c);
+        cc.addHamFile(stringToInputStream("foo bar is a great sentence"));
+        cc.addSpamFile(stringToInputStream("buy replica foo watches"));
+        cc.publish();
+        assertEquals(0.5, cc.probSpamForMessage(stringToInputStream("foo")), EPSILON);
+        assertEquals(0.95, cc.probSpamForMessage(stringToInputStream("replica")), EPSILON);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testChooseBeforeTraining() throws Exception
+    {
+        exact.setHashedFeatures(18);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,78 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestInterestingTokens
+{
+    SpamClassifier c;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        c=new SpamClassifier();
+        // neutral words n0..n49 in both classes, then words of known odds
+        StringBuilder neutral = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            neutral.append("n").append(i).append(' ');
+        }
+        c.addSpamFile(stringToInputStream(neutral + "viagra money"));
+        c.addSpamFile(stringToInputStream("money"));
+        c.addHamFile(stringToInputStream(neutral + "meeting"));
+        c.addHamFile(stringToInputStream("money"));
+    }
+
+    @Test
+    public void testOnlyMostInterestingTokens() throws Exception
+    {
+        c.setMaxInterestingTokens(2);
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            message.append("n").append(i).append(' ');
+        }
+        message.append("money viagra meeting");
+        // only viagra (0.95) and meeting (0.05) are scored
+        double expected = 0.95 * 0.05 / (0.95 * 0.05 + 0.05 * 0.95);
+        assertEquals(expected, c.probSpamForMessage(stringToInputStream(message.toString())), EPSILON);
+        c.setLogSpaceScoring(true);
+        assertEquals(expected, c.probSpamForMessage(stringToInputStream(message.toString())), EPSILON);
+    }
+
+    @Test
+    public void testDropsLeastInteresting() throws Exception
+    {
+        c.setMaxInterestingTokens(1);
+        // money is 2/3 spam, viagra is clamped to 0.95
+        assertEquals(0.95, c.probSpamForMessage(stringToInputStream("money viagra n1")), EPSILON);
+        assertEquals(0.95, c.probSpamForMessage(stringToInputStream("viagra money viagra")), EPSILON);
+        // among equally interesting words the first one seen is kept
+        assertEquals(0.05, c.probSpamForMessage(stringToInputStream("meeting viagra")), EPSILON);
+    }
+
+    @Test
+    public void testAllTokensWhenFewer() throws Exception
+    {
+        String m = "money viagra n3";
+        double all = c.probSpamForMessage(stringToInputStream(m));
+        c.setMaxInterestingTokens(15);
+        assertEquals(all, c.probSpamForMessage(stringToInputStream(m)), EPSILON);
+        c.setMaxInterestingTokens(0);
+        assertEquals(all, c.probSpamForMessage(stringToInputStream(m)), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        c.setMaxInterestingTokens(-1);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
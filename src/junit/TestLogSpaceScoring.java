@@ -0,0 +1,124 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestLogSpaceScoring
+{
+    SpamClassifier f;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testSameScores() throws Exception
+    {
+        String[] messages = {
+            "please message me",
+            "please message me a legitimate foo",
+            "please please please send me legitimate ham message",
+            "totally legitimate money",
+            "totally legitimate sentence",
+            "totally legitimate thisisnotarealword asdfasdf fasdfasdfasdf",
+        };
+        for (String m : messages) {
+            f.setLogSpaceScoring(false);
+            double product = f.probSpamForMessage(stringToInputStream(m));
+            f.setLogSpaceScoring(true);
+            assertEquals(m, product, f.probSpamForMessage(stringToInputStream(m)), EPSILON);
+        }
+    }
+
+    @Test
+    public void testNoUnderflow() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        StringBuilder spam = new StringBuilder();
+        StringBuilder ham = new StringBuilder();
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            spam.append("s").append(i).append(' ');
+            ham.append("h").append(i).append(' ');
+            message.append("s").append(i).append(" h").append(i).append(' ');
+        }
+        c.addSpamFile(stringToInputStream(spam.toString()));
+        c.addHamFile(stringToInputStream(ham.toString()));
+        message.append("s400");
+        c.addSpamFile(stringToInputStream("s400"));
+
+        // the product of 801 probabilities underflows to 0 / 0
+        assertTrue(Double.isNaN(c.probSpamForMessage(stringToInputStream(message.toString()))));
+        c.setLogSpaceScoring(true);
+        assertEquals(0.95, c.probSpamForMessage(stringToInputStream(message.toString())), EPSILON);
+    }
+
+    @Test
+    public void testEarlyExit() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setThreshold(0.5);
+        StringBuilder spam = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            spam.append("s").append(i).append(' ');
+        }
+        c.addSpamFile(stringToInputStream(spam.toString()));
+        c.addHamFile(stringToInputStream("h0 h1 h2 h3 h4"));
+
+        File file = File.createTempFile("early", ".txt");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 5000; i++) {
+                out.write(spam.toString().getBytes());
+                out.write("h0 h1 filler ".getBytes());
+            }
+        }
+
+        assertTrue(c.isSpam(new FileInputStream(file)));
+        c.setEarlyExit(true);
+        try (FileInputStream in = new FileInputStream(file)) {
+            assertTrue(c.isSpam(in));
+            assertTrue("read the whole message", in.getChannel().position() < file.length());
+        }
+        // an unknown length can still be decided by the size of the vocabulary
+        assertTrue(c.isSpam(new java.io.BufferedInputStream(new FileInputStream(file))));
+    }
+
+    @Test
+    public void testEarlyExitSameVerdict() throws Exception
+    {
+        f.setThreshold(0.6);
+        String[] messages = {
+            "please message me",
+            "please message me a legitimate foo",
+            "totally legitimate money",
+            "totally legitimate sentence",
+        };
+        for (String m : messages) {
+            boolean full = f.isSpam(stringToInputStream(m));
+            f.setEarlyExit(true);
+            assertEquals(m, full, f.isSpam(stringToInputStream(m)));
+            f.setEarlyExit(false);
+        }
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,177 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.MailboxIngester;
+import bayes.classifier.impl.MailboxIngester.Label;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestMailboxIngester
+{
+    Path dir;
+    SpamClassifier f;
+
+    /** Messages with "cheap" in them are spam. */
+    static final MailboxIngester.Labeler BY_CONTENT = new MailboxIngester.Labeler() {
+        public Label label(String key, byte[] message, int length) {
+            return new String(message, 0, length).contains("cheap") ? Label.SPAM : Label.HAM;
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("mailbox");
+        f = new SpamClassifier();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    private static String message(String from, String body) {
+        return "From " + from + " Mon Jan  1 00:00:00 2024\nSubject: hi\n\n" + body + "\n\n";
+    }
+
+    @Test
+    public void testMbox() throws Exception
+    {
+        Path mbox = dir.resolve("inbox");
+        Files.write(mbox, (message("a@x", "cheap watches")
+                + message("b@x", "lunch tomorrow\n>From the office")
+                + message("c@x", "cheap pills")).getBytes());
+
+        MailboxIngester in = new MailboxIngester(f, BY_CONTENT);
+        assertEquals(3, in.ingestMbox(mbox));
+        assertEquals(2, f.getNumSpamMessages());
+        assertEquals(1, f.getNumHamMessages());
+        assertEquals(2, f.getNumSpamOccurrences("cheap"));
+        assertEquals(3, f.getNumSpamOccurrences("Subject:") + f.getNumHamOccurrences("Subject:"));
+        // the envelope line is not part of the message, but an unquoted >From is
+        assertEquals(0, f.getNumSpamOccurrences("a@x"));
+        assertEquals(1, f.getNumHamOccurrences("From"));
+
+        // only the appended message is read the second time
+        Files.write(mbox, message("d@x", "cheap loans").getBytes(), StandardOpenOption.APPEND);
+        assertEquals(1, in.ingestMbox(mbox));
+        assertEquals(3, f.getNumSpamOccurrences("cheap"));
+        assertEquals(0, in.ingestMbox(mbox));
+    }
+
+    @Test
+    public void testFollowWaitsForCompleteMessage() throws Exception
+    {
+        Path mbox = dir.resolve("feed");
+        Files.write(mbox, (message("a@x", "cheap watches") + "From b@x Mon Jan  1 00:00:00 2024\nSubject: half").getBytes());
+        MailboxIngester in = new MailboxIngester(f, BY_CONTENT);
+        in.setFollow(true);
+        assertEquals(1, in.ingestMbox(mbox));
+        Files.write(mbox, " written\n\ncheap stuff\n\n".getBytes(), StandardOpenOption.APPEND);
+        assertEquals(1, in.ingestMbox(mbox));
+        assertEquals(2, f.getNumSpamMessages());
+        assertEquals(1, f.getNumSpamOccurrences("written"));
+    }
+
+    @Test
+    public void testCheckpointResume() throws Exception
+    {
+        Path mbox = dir.resolve("inbox");
+        Path checkpoint = dir.resolve("checkpoint");
+        Path model = dir.resolve("model");
+        Files.write(mbox, (message("a@x", "cheap watches") + message("b@x", "lunch")).getBytes());
+
+        MailboxIngester in = new MailboxIngester(f, BY_CONTENT);
+        in.setCheckpoint(checkpoint, model);
+        in.setCheckpointInterval(1);
+        assertEquals(2, in.ingestMbox(mbox));
+
+        Files.write(mbox, message("c@x", "cheap pills").getBytes(), StandardOpenOption.APPEND);
+        SpamClassifier restarted = SpamClassifier.load(model);
+        MailboxIngester again = new MailboxIngester(restarted, BY_CONTENT);
+        again.setCheckpoint(checkpoint, model);
+        assertEquals(1, again.ingestMbox(mbox));
+        assertEquals(2, restarted.getNumSpamOccurrences("cheap"));
+        assertEquals(2, restarted.getNumSpamMessages());
+        assertEquals(1, restarted.getNumHamMessages());
+    }
+
+    @Test
+    public void testMaildir() throws Exception
+    {
+        Path maildir = dir.resolve("Maildir");
+        Files.createDirectories(maildir.resolve("new"));
+        Files.createDirectories(maildir.resolve("cur"));
+        Files.createDirectories(maildir.resolve("tmp"));
+        Files.write(maildir.resolve("cur/1000.a.host:2,S"), "cheap watches".getBytes());
+        Files.write(maildir.resolve("new/1001.b.host"), "lunch tomorrow".getBytes());
+        Files.write(maildir.resolve("tmp/1002.c.host"), "still being delivered".getBytes());
+
+        Path labels = dir.resolve("labels");
+        Files.write(labels, Arrays.asList("1000.a.host spam", "1001.b.host ham", "1003.d.host spam"));
+        MailboxIngester in = new MailboxIngester(f, MailboxIngester.Labeler.fromFile(labels));
+        assertEquals(2, in.ingestMaildir(maildir));
+        assertEquals(1, f.getNumSpamMessages());
+        assertEquals(1, f.getNumHamMessages());
+        assertEquals(0, f.getNumHamOccurrences("delivered"));
+
+        // a message moving from new to cur is not read again
+        Files.move(maildir.resolve("new/1001.b.host"), maildir.resolve("cur/1001.b.host:2,S"));
+        Files.write(maildir.resolve("new/1003.d.host"), "cheap pills".getBytes());
+        assertEquals(1, in.ingestMaildir(maildir));
+        assertEquals(2, f.getNumSpamOccurrences("cheap"));
+        assertEquals(1, f.getNumHamMessages());
+    }
+
+    @Test
+    public void testMaildirLateDelivery() throws Exception
+    {
+        Path maildir = dir.resolve("Maildir");
+        Files.createDirectories(maildir.resolve("new"));
+        Files.createDirectories(maildir.resolve("cur"));
+        Path checkpoint = dir.resolve("checkpoint");
+        Path model = dir.resolve("model");
+        Files.write(maildir.resolve("new/1000.a.host"), "cheap watches".getBytes());
+        Files.write(maildir.resolve("new/1005.b.host"), "lunch tomorrow".getBytes());
+
+        MailboxIngester in = new MailboxIngester(f, BY_CONTENT);
+        in.setCheckpoint(checkpoint, model);
+        assertEquals(2, in.ingestMaildir(maildir));
+
+        // delivered after the checkpoint, but named before the newest message
+        Files.write(maildir.resolve("new/1003.c.host"), "cheap pills".getBytes());
+        Files.move(maildir.resolve("new/1005.b.host"), maildir.resolve("cur/1005.b.host:2,S"));
+        Files.delete(maildir.resolve("new/1000.a.host"));
+        SpamClassifier restarted = SpamClassifier.load(model);
+        MailboxIngester again = new MailboxIngester(restarted, BY_CONTENT);
+        again.setCheckpoint(checkpoint, model);
+        assertEquals(1, again.ingestMaildir(maildir));
+        assertEquals(2, restarted.getNumSpamMessages());
+        assertEquals(1, restarted.getNumHamMessages());
+        assertEquals(1, restarted.getNumSpamOccurrences("pills"));
+        assertEquals(0, again.ingestMaildir(maildir));
+
+        // the journal has new names appended at each checkpoint
+        Path journal = dir.resolve("checkpoint.maildir");
+        String path = maildir.toAbsolutePath().toString();
+        assertEquals(Arrays.asList("1000.a.host/" + path, "1005.b.host/" + path,
+                "1003.c.host/" + path), Files.readAllLines(journal));
+
+        // and is rewritten with only the names still in the maildir once the
+        // deleted ones are half of it
+        Files.delete(maildir.resolve("new/1003.c.host"));
+        assertEquals(0, again.ingestMaildir(maildir));
+        assertEquals(Arrays.asList("1005.b.host/" + path), Files.readAllLines(journal));
+        MailboxIngester third = new MailboxIngester(restarted, BY_CONTENT);
+        third.setCheckpoint(checkpoint, model);
+        assertEquals(0, third.ingestMaildir(maildir));
+    }
+}
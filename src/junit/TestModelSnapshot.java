@@ -0,0 +1,129 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestModelSnapshot
+{
+    SpamClassifier f;
+    Path file;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.setThreshold(0.7);
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        f.addSpamFile(stringToInputStream("caf\u00e9 \u00fcber"));
+        file=Files.createTempFile("model", ".bin");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        f.save(file);
+        SpamClassifier g = SpamClassifier.load(file);
+
+        assertEquals(f.getThreshold(), g.getThreshold(), EPSILON);
+        assertEquals(f.getNumSpamMessages(), g.getNumSpamMessages());
+        assertEquals(f.getNumHamMessages(), g.getNumHamMessages());
+        assertEquals(f.getAllSpamWords(), g.getAllSpamWords());
+        assertEquals(f.getAllHamWords(), g.getAllHamWords());
+        for (String w : f.getAllWords()) {
+            assertEquals(w, f.getNumSpamOccurrences(w), g.getNumSpamOccurrences(w));
+            assertEquals(w, f.getNumHamOccurrences(w), g.getNumHamOccurrences(w));
+        }
+        String m = "please please please send me legitimate ham message";
+        assertEquals(f.probSpamForMessage(stringToInputStream(m)),
+                g.probSpamForMessage(stringToInputStream(m)), EPSILON);
+    }
+
+    @Test
+    public void testScoresFromFile() throws Exception
+    {
+        f.addHamFile(stringToInputStream("\ud83d\udcb0 \u00fcberall zebra"));
+        f.save(file);
+        SpamClassifier g = SpamClassifier.load(file);
+        // the words are looked up in the file, which is all but its header
+        assertEquals(Files.size(file) - 32, g.getVocabularySizeInBytes());
+        for (String w : f.getAllWords()) {
+            assertEquals(w, f.getNumSpamOccurrences(w), g.getNumSpamOccurrences(w));
+            assertEquals(w, f.getNumHamOccurrences(w), g.getNumHamOccurrences(w));
+            assertEquals(w, f.probSpamGivenWord(w), g.probSpamGivenWord(w));
+        }
+        for (String w : new String[] { "", "caf", "caf\u00e9s", "\ud83d", "zzzz", "\uffff" }) {
+            assertNull(w, g.probSpamGivenWord(w));
+        }
+        String m = "please send me caf\u00e9 \ud83d\udcb0 \u00fcber and unknown words";
+        assertEquals(f.probSpamForMessage(stringToInputStream(m)),
+                g.probSpamForMessage(stringToInputStream(m)), 0);
+        g.setLogSpaceScoring(true);
+        f.setLogSpaceScoring(true);
+        assertEquals(f.probSpamForMessage(stringToInputStream(m)),
+                g.probSpamForMessage(stringToInputStream(m)), 0);
+
+        // training moves the model onto the heap and leaves the file alone
+        g.addSpamFile(stringToInputStream("zebra"));
+        assertEquals(1, g.getNumSpamOccurrences("zebra"));
+        assertEquals(0, SpamClassifier.load(file).getNumSpamOccurrences("zebra"));
+        assertEquals(f.getAllWords(), g.getAllWords());
+    }
+
+    @Test
+    public void testOverwrite() throws Exception
+    {
+        f.save(file);
+        new SpamClassifier().save(file);
+        assertEquals(0, SpamClassifier.load(file).getAllWords().size());
+    }
+
+    @Test
+    public void testNotAModel() throws Exception
+    {
+        Files.write(file, "definitely not a model file".getBytes());
+        try {
+            SpamClassifier.load(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception
+    {
+        f.save(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+        try {
+            SpamClassifier.load(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,52 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestParallelTraining
+{
+    SpamClassifier serial;
+    SpamClassifier parallel;
+
+    @Before
+    public void setup() throws Exception {
+        serial=new SpamClassifier();
+        serial.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        serial.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+
+        parallel=new SpamClassifier();
+        parallel.setTrainingThreads(4);
+        parallel.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        parallel.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testSameMessageCounts() throws Exception
+    {
+        assertEquals(serial.getNumHamMessages(), parallel.getNumHamMessages());
+        assertEquals(serial.getNumSpamMessages(), parallel.getNumSpamMessages());
+    }
+
+    @Test
+    public void testSameWordCounts() throws Exception
+    {
+        assertEquals(serial.getAllSpamWords(), parallel.getAllSpamWords());
+        assertEquals(serial.getAllHamWords(), parallel.getAllHamWords());
+        for (String w : serial.getAllWords()) {
+            assertEquals(w, serial.getNumSpamOccurrences(w), parallel.getNumSpamOccurrences(w));
+            assertEquals(w, serial.getNumHamOccurrences(w), parallel.getNumHamOccurrences(w));
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNoThreads() throws Exception
+    {
+        parallel.setTrainingThreads(0);
+    }
+}
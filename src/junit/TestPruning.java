@@ -0,0 +1,131 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestPruning
+{
+    SpamClassifier f;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testPrune() throws Exception
+    {
+        int words = f.getAllWords().size();
+        long bytes = f.getVocabularySizeInBytes();
+        // "please" is in three messages, "foo" in two
+        int removed = f.prune(2);
+        assertEquals(words - removed, f.getAllWords().size());
+        assertTrue(f.getAllWords().contains("please"));
+        assertTrue(f.getAllWords().contains("foo"));
+        assertFalse(f.getAllWords().contains("Nigerian"));
+        assertFalse(f.getAllSpamWords().contains("Nigerian"));
+        assertEquals(0, f.getNumSpamOccurrences("Nigerian"));
+        assertEquals(2, f.getNumSpamOccurrences("please"));
+        assertTrue(f.getVocabularySizeInBytes() < bytes);
+
+        // pruned words score as unknown, kept words as before
+        assertEquals(2.0 / 3, f.probSpamForMessage(stringToInputStream("please Nigerian")), EPSILON);
+        // a pruned word seen again is counted from then on
+        f.addSpamFile(stringToInputStream("Nigerian"));
+        assertEquals(1, f.getNumSpamOccurrences("Nigerian"));
+    }
+
+    @Test
+    public void testMaxWords() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setMaxWords(100);
+        for (int m = 0; m < 50; m++) {
+            StringBuilder message = new StringBuilder("common ");
+            for (int i = 0; i < 10; i++) {
+                message.append("rare").append(m).append('_').append(i).append(' ');
+            }
+            c.addSpamFile(stringToInputStream(message.toString()));
+            assertTrue(c.getAllWords().size() <= 100);
+        }
+        assertEquals(50, c.getNumSpamOccurrences("common"));
+    }
+
+    @Test
+    public void testMaxWordsBreaksTies() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setMaxWords(4);
+        c.addSpamFile(stringToInputStream("a b c d e"));
+        // the words are tied, so the ones seen last are kept
+        assertEquals(3, c.getAllWords().size());
+        assertTrue(c.getAllWords().contains("e"));
+        assertFalse(c.getAllWords().contains("a"));
+
+        // new words beat the old words seen as often
+        c.addSpamFile(stringToInputStream("f g"));
+        assertEquals(3, c.getAllWords().size());
+        assertTrue(c.getAllWords().contains("f"));
+        assertTrue(c.getAllWords().contains("g"));
+        assertFalse(c.getAllWords().contains("c"));
+
+        SpamClassifier d = new SpamClassifier();
+        d.setMaxWords(40);
+        for (int m = 0; m < 30; m++) {
+            StringBuilder message = new StringBuilder();
+            for (int i = 0; i < 7; i++) {
+                message.append("hapax").append(m).append('_').append(i).append(' ');
+            }
+            d.addHamFile(stringToInputStream(message.toString()));
+            int words = d.getAllWords().size();
+            assertTrue(words <= 40);
+            assertTrue(words >= Math.min(30, 7 * (m + 1)));
+        }
+    }
+
+    @Test
+    public void testCountSketch() throws Exception
+    {
+        SpamClassifier c = new SpamClassifier();
+        c.setCountSketch(0.01, 0.01);
+        for (int m = 0; m < 200; m++) {
+            c.addHamFile(stringToInputStream("hapax" + m + " meeting"));
+            c.addSpamFile(stringToInputStream("once" + m + " money"));
+        }
+        c.addSpamFile(stringToInputStream("money twice"));
+        c.addSpamFile(stringToInputStream("twice"));
+        c.prune(3);
+        assertTrue(c.getAllWords().contains("money"));
+        assertFalse(c.getAllWords().contains("twice"));
+        assertEquals(201, c.getNumSpamOccurrences("money"));
+
+        // estimates never undercount and stay within epsilon * total = 8
+        int twice = c.getNumSpamOccurrences("twice");
+        assertTrue(twice >= 2 && twice <= 2 + 8);
+        int hapax = c.getNumHamOccurrences("hapax7");
+        assertTrue(hapax >= 1 && hapax <= 1 + 8);
+        assertTrue(c.getNumSpamOccurrences("hapax7") <= 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSketch() {
+        new SpamClassifier().setCountSketch(1.5, 0.01);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
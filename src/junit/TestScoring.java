@@ -0,0 +1,131 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestScoring
+{
+    SpamClassifier f;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testSameScoreAsScanner() throws Exception
+    {
+        String[] messages = {
+            "please message me",
+            "please please please send me legitimate ham message",
+            "  totally\tlegitimate\n\nmoney\r\nsentence  ",
+            "a\u2003foo\u00a0bar card",
+            "",
+            "thisisnotarealword",
+        };
+        for (String m : messages) {
+            assertEquals(m, scannerScore(m), f.probSpamForMessage(stringToInputStream(m)), EPSILON);
+        }
+    }
+
+    @Test
+    public void testLongMessage() throws Exception
+    {
+        // longer than the read buffers so tokens straddle buffer boundaries
+        StringBuilder sb = new StringBuilder();
+        String[] words = {"please", "message", "me", "a", "legitimate", "foo", "money", "sentence"};
+        for (int i = 0; i < 20000; i++) {
+            sb.append(words[i % words.length]).append(i % 7 == 0 ? "\n" : " ");
+        }
+        String m = sb.toString();
+        assertEquals(scannerScore(m), f.probSpamForMessage(stringToInputStream(m)), EPSILON);
+    }
+
+    @Test
+    public void testScoresFollowTraining() throws Exception
+    {
+        String m = "please message me sentence money";
+        double before = f.probSpamForMessage(stringToInputStream(m));
+        f.addHamFile(stringToInputStream("money money please"));
+        f.addSpamFile(stringToInputStream("sentence"));
+        double after = f.probSpamForMessage(stringToInputStream(m));
+        assertTrue(before != after);
+        assertEquals(scannerScore(m), after, EPSILON);
+        f.setLogSpaceScoring(true);
+        assertEquals(scannerScore(m), f.probSpamForMessage(stringToInputStream(m)), EPSILON);
+    }
+
+    @Test
+    public void testScoringDoesNotAllocate() throws Exception
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        ByteArrayInputStream in = (ByteArrayInputStream) stringToInputStream(
+                "please please please send me legitimate ham message totally money sentence unknownword");
+        for (int i = 0; i < 20000; i++) {
+            in.reset();
+            f.probSpamForMessage(in);
+        }
+
+        int messages = 10000;
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < messages; i++) {
+            in.reset();
+            f.probSpamForMessage(in);
+        }
+        long bytesPerMessage = (threads.getThreadAllocatedBytes(id) - before) / messages;
+        assertTrue("allocated " + bytesPerMessage + " bytes per message", bytesPerMessage < 16);
+    }
+
+    /**
+     * The original Scanner and HashMap based scoring, kept as a reference.
+     */
+    private double scannerScore(String message) {
+        Scanner scan = new Scanner(stringToInputStream(message));
+        Set<String> seen = new HashSet<String>();
+        double a = 1;
+        double b = 1;
+        while (scan.hasNext()) {
+            String word = scan.next();
+            if (!seen.add(word) || f.probSpamGivenWord(word) == null) {
+                continue;
+            }
+            double p = f.probSpamGivenWord(word);
+            if (p == 1) {
+                a *= 0.95;
+                b *= 0.05;
+            } else if (p == 0) {
+                a *= 0.05;
+                b *= 0.95;
+            } else {
+                a = a * p;
+                b = b * (1 - p);
+            }
+        }
+        return a / (a + b);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,211 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ScoreResult;
+import bayes.classifier.impl.ScoreResult.Limit;
+import bayes.classifier.impl.ScoringLimits;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestScoringLimits
+{
+    SpamClassifier f;
+    public static final double EPSILON=0.000001;
+
+    public static InputStream stringToInputStream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+
+    /** Hides the length of the stream, like a socket. */
+    public static InputStream unknownLength(String s) {
+        return new FilterInputStream(stringToInputStream(s)) {};
+    }
+
+    private double score(String message) {
+        return f.probSpamForMessage(stringToInputStream(message));
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder b=new StringBuilder();
+        for (int i=0; i<n; i++) {
+            b.append(s);
+        }
+        return b.toString();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        f.setLogSpaceScoring(true);
+    }
+
+    @Test
+    public void testNoLimits() throws Exception {
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy replica watches now"));
+        assertEquals(score("buy replica watches now"), r.getScore(), 0);
+        assertEquals(4, r.getTokenCount());
+        assertFalse(r.isTruncated());
+        assertEquals(Collections.emptySet(), r.getLimitsHit());
+        assertTrue(f.getScoringLimits().isNone());
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        String head="buy replica watches ";
+        String message=head + repeat("please send the meeting notes ", 100);
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(head.length()));
+        ScoreResult r=f.scoreMessage(stringToInputStream(message));
+        assertTrue(r.isTruncatedBy(Limit.BYTES));
+        assertEquals(EnumSet.of(Limit.BYTES), r.getLimitsHit());
+        assertEquals(3, r.getTokenCount());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score(head), r.getScore(), EPSILON);
+
+        // a message that just fits is not truncated
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(head.length()));
+        assertFalse(f.scoreMessage(stringToInputStream(head)).isTruncated());
+        assertFalse(f.scoreMessage(unknownLength("")).isTruncated());
+    }
+
+    @Test
+    public void testHeadAndTail() throws Exception {
+        String head="buy replica ";
+        String tail=" watches now";
+        String message=head + repeat("please send the meeting notes ", 1000) + tail;
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(head.length() + tail.length())
+                .withHeadAndTail(true));
+        ScoreResult known=f.scoreMessage(stringToInputStream(message));
+        ScoreResult unknown=f.scoreMessage(unknownLength(message));
+        assertTrue(known.isTruncatedBy(Limit.BYTES));
+        assertTrue(unknown.isTruncatedBy(Limit.BYTES));
+        assertEquals(4, known.getTokenCount());
+        assertEquals(4, unknown.getTokenCount());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score(head + tail), known.getScore(), EPSILON);
+        assertEquals(score(head + tail), unknown.getScore(), EPSILON);
+    }
+
+    @Test
+    public void testHeadAndTailOfShortMessage() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(1000).withHeadAndTail(true));
+        for (String m : new String[] { "", "buy", "buy replica watches now" }) {
+            ScoreResult known=f.scoreMessage(stringToInputStream(m));
+            ScoreResult unknown=f.scoreMessage(unknownLength(m));
+            assertFalse(known.isTruncated());
+            assertFalse(unknown.isTruncated());
+            assertEquals(score(m), known.getScore(), 0);
+            assertEquals(score(m), unknown.getScore(), 0);
+        }
+        // the tail starts right after the head, so nothing is left out
+        String m="buy replica watches now";
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(m.length()).withHeadAndTail(true));
+        assertFalse(f.scoreMessage(unknownLength(m)).isTruncated());
+    }
+
+    @Test
+    public void testHeadAndTailOfFile() throws Exception {
+        Path file=Files.createTempFile("message", ".txt");
+        try {
+            String message="Nigerian " + repeat("the meeting is at noon ", 10000) + "money";
+            Files.write(file, message.getBytes());
+            f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(100).withHeadAndTail(true));
+            ScoreResult r;
+            try (InputStream in=new FileInputStream(file.toFile())) {
+                r=f.scoreMessage(in);
+            }
+            assertTrue(r.isTruncatedBy(Limit.BYTES));
+            assertTrue(r.getTokenCount() < 30);
+            assertEquals(r.getScore(), f.scoreMessage(unknownLength(message)).getScore(), 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMaxTokens() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxTokens(3));
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy buy replica watches now"));
+        assertEquals(EnumSet.of(Limit.TOKENS), r.getLimitsHit());
+        assertEquals(3, r.getTokenCount());
+        assertFalse(f.scoreMessage(stringToInputStream("buy buy replica")).isTruncated());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score("buy replica"), r.getScore(), EPSILON);
+    }
+
+    @Test
+    public void testMaxDistinctTokens() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxDistinctTokens(2));
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy xyzzy buy replica buy watches"));
+        assertEquals(EnumSet.of(Limit.DISTINCT_TOKENS), r.getLimitsHit());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score("buy replica"), r.getScore(), EPSILON);
+    }
+
+    @Test
+    public void testMaxTokenLength() throws Exception {
+        String blob=repeat("QUJD", 100000);
+        f.setScoringLimits(ScoringLimits.NONE.withMaxTokenLength(8));
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy " + blob + " replica"));
+        assertEquals(EnumSet.of(Limit.TOKEN_LENGTH), r.getLimitsHit());
+        assertEquals(3, r.getTokenCount());
+        assertFalse(f.scoreMessage(stringToInputStream("buy replica watches")).isTruncated());
+        assertFalse(f.scoreMessage(stringToInputStream("abcdefgh")).isTruncated());
+        assertTrue(f.scoreMessage(stringToInputStream("abcdefghi")).isTruncated());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score("buy replica"), r.getScore(), EPSILON);
+    }
+
+    @Test
+    public void testLimitsPerCall() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxTokens(1));
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy replica watches"),
+                ScoringLimits.NONE.withMaxTokens(2));
+        assertEquals(EnumSet.of(Limit.TOKENS), r.getLimitsHit());
+        assertEquals(2, r.getTokenCount());
+        assertEquals(1, f.getScoringLimits().getMaxTokens());
+        assertFalse(f.scoreMessage(stringToInputStream("buy replica watches"),
+                ScoringLimits.NONE).isTruncated());
+        f.setScoringLimits(ScoringLimits.NONE);
+        assertEquals(score("buy replica"), r.getScore(), EPSILON);
+    }
+
+    @Test
+    public void testLimitsDoNotAffectTraining() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxTokenLength(3).withMaxBytes(4));
+        f.addSpamFile(stringToInputStream("longword another"));
+        assertEquals(1, f.getNumSpamOccurrences("another"));
+        assertEquals(1, f.getNumSpamOccurrences("longword"));
+    }
+
+    @Test
+    public void testAllLimits() throws Exception {
+        f.setScoringLimits(ScoringLimits.NONE.withMaxBytes(50).withMaxTokenLength(5));
+        ScoreResult r=f.scoreMessage(stringToInputStream("buy replica watches " + repeat("x", 100)));
+        assertEquals(EnumSet.of(Limit.BYTES, Limit.TOKEN_LENGTH), r.getLimitsHit());
+        assertTrue(r.toString().contains("truncatedBy"));
+        f.setEarlyExit(true);
+        assertEquals(r.getScore(), f.scoreMessage(stringToInputStream("buy replica watches " + repeat("x", 100))).getScore(), EPSILON);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        ScoringLimits.NONE.withMaxTokens(-1);
+    }
+}
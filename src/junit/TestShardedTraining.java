@@ -0,0 +1,96 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.ShardedTrainer;
+import bayes.classifier.impl.SpamClassifier;
+
+public class TestShardedTraining
+{
+    SpamClassifier whole;
+    public static final double EPSILON=0.000001;
+
+    @Before
+    public void setup() throws Exception {
+        whole=new SpamClassifier();
+        whole.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        whole.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    private void assertSameModel(SpamClassifier expected, SpamClassifier actual) {
+        assertEquals(expected.getNumSpamMessages(), actual.getNumSpamMessages());
+        assertEquals(expected.getNumHamMessages(), actual.getNumHamMessages());
+        assertEquals(expected.getAllWords(), actual.getAllWords());
+        for (String w : expected.getAllWords()) {
+            assertEquals(w, expected.getNumSpamOccurrences(w), actual.getNumSpamOccurrences(w));
+            assertEquals(w, expected.getNumHamOccurrences(w), actual.getNumHamOccurrences(w));
+        }
+    }
+
+    @Test
+    public void testMergeHalves() throws Exception
+    {
+        SpamClassifier hams=new SpamClassifier();
+        hams.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        SpamClassifier spams=new SpamClassifier();
+        spams.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        hams.merge(spams);
+        assertSameModel(whole, hams);
+        assertEquals(whole.probSpamForMessage(stringToInputStream("please foo money")),
+                hams.probSpamForMessage(stringToInputStream("please foo money")), EPSILON);
+    }
+
+    @Test
+    public void testMergeSavedModels() throws Exception
+    {
+        Path a=Files.createTempFile("shard", ".model");
+        Path b=Files.createTempFile("shard", ".model");
+        try {
+            SpamClassifier hams=new SpamClassifier();
+            hams.setThreshold(0.8);
+            hams.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+            hams.save(a);
+            SpamClassifier spams=new SpamClassifier();
+            spams.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+            spams.save(b);
+            SpamClassifier merged=SpamClassifier.mergeAll(Arrays.asList(a, b));
+            assertSameModel(whole, merged);
+            assertEquals(0.8, merged.getThreshold(), EPSILON);
+        } finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeHashedIntoWords() throws Exception
+    {
+        SpamClassifier hashed=new SpamClassifier();
+        hashed.setHashedFeatures(10);
+        whole.merge(hashed);
+    }
+
+    @Test
+    public void testWorkerProcesses() throws Exception
+    {
+        ShardedTrainer trainer=new ShardedTrainer(2);
+        SpamClassifier merged=trainer.train(Paths.get("docs/basictest/spam"),
+                Paths.get("docs/basictest/ham"));
+        assertSameModel(whole, merged);
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,133 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.ThresholdTuner;
+import bayes.classifier.impl.ThresholdTuner.OperatingPoint;
+
+public class TestThresholdTuner
+{
+    SpamClassifier f;
+    Path dir;
+    List<Path> spam = new ArrayList<>();
+    List<Path> ham = new ArrayList<>();
+    public static final double EPSILON=0.000001;
+
+    static final String[] SPAM = {
+        "buy replica watches",
+        "Nigerian money please",
+        "enter your password",
+        "great foo prices",
+        "please send me a ham sandwich",
+    };
+    static final String[] HAM = {
+        "foo bar is a great sentence",
+        "totally legitimate ham message",
+        "please send me a sentence",
+        "a great message",
+        "enter the bar",
+        "legitimate password",
+    };
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+        dir=Files.createTempDirectory("tuner");
+        for (int i = 0; i < SPAM.length; i++) {
+            spam.add(Files.write(dir.resolve("spam" + i), SPAM[i].getBytes()));
+        }
+        for (int i = 0; i < HAM.length; i++) {
+            ham.add(Files.write(dir.resolve("ham" + i), HAM[i].getBytes()));
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (Path p : spam) {
+            Files.delete(p);
+        }
+        for (Path p : ham) {
+            Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    private int countSpam(List<Path> messages) throws Exception {
+        int n=0;
+        for (Path p : messages) {
+            try (FileInputStream in=new FileInputStream(p.toFile())) {
+                n+=f.isSpam(in) ? 1 : 0;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testCurveMatchesRescoring() throws Exception
+    {
+        ThresholdTuner tuner=new ThresholdTuner(f, 2);
+        tuner.score(spam, ham);
+        List<OperatingPoint> curve=tuner.curve();
+        assertEquals(0, curve.get(0).getTruePositives() + curve.get(0).getFalsePositives());
+        OperatingPoint last=curve.get(curve.size() - 1);
+        assertEquals(Double.NEGATIVE_INFINITY, last.getThreshold(), 0);
+        assertEquals(1.0, last.getTruePositiveRate(), EPSILON);
+        assertEquals(1.0, last.getFalsePositiveRate(), EPSILON);
+        for (OperatingPoint p : curve) {
+            f.setThreshold(p.getThreshold());
+            assertEquals(p.toString(), countSpam(spam), p.getTruePositives());
+            assertEquals(p.toString(), countSpam(ham), p.getFalsePositives());
+        }
+        double auc=tuner.auc();
+        assertTrue(auc > 0.5 && auc <= 1);
+    }
+
+    @Test
+    public void testTune() throws Exception
+    {
+        ThresholdTuner tuner=new ThresholdTuner(f, 2);
+        tuner.score(spam, ham);
+        for (double rate : new double[] { 0, 0.2, 0.5, 1 }) {
+            OperatingPoint p=tuner.tune(rate);
+            assertEquals(p.getThreshold(), f.getThreshold(), 0);
+            assertTrue(p.getFalsePositiveRate() <= rate);
+            assertEquals(countSpam(ham), p.getFalsePositives());
+            assertEquals(countSpam(spam), p.getTruePositives());
+            // any lower threshold lets through more ham than allowed
+            OperatingPoint lower=tuner.evaluate(Math.nextDown(p.getThreshold()));
+            assertTrue(rate == 1 || lower.getFalsePositiveRate() > rate);
+        }
+    }
+
+    @Test
+    public void testDirectories() throws Exception
+    {
+        ThresholdTuner tuner=new ThresholdTuner(f);
+        tuner.score(new File("docs/basictest/spam").toPath(), new File("docs/basictest/ham").toPath());
+        OperatingPoint p=tuner.tune(0);
+        assertEquals(0, p.getFalsePositives());
+        // the training messages themselves are told apart
+        assertEquals(1.0, p.getRecall(), EPSILON);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNothingScored() throws Exception
+    {
+        new ThresholdTuner(f).tune(0.01);
+    }
+}
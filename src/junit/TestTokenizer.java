@@ -0,0 +1,129 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.Tokenizer;
+import bayes.classifier.impl.WhitespaceTokenizer;
+
+public class TestTokenizer
+{
+    @Test
+    public void testSameTokensAsScanner() throws Exception
+    {
+        Random r = new Random(220);
+        String alphabet = "ab Z9.\t\n\r\f\u000b\u2003-";
+        for (int n = 0; n < 200; n++) {
+            StringBuilder sb = new StringBuilder();
+            int len = r.nextInt(n < 100 ? 50 : 20000);
+            for (int i = 0; i < len; i++) {
+                sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+            }
+            String m = sb.toString();
+            assertEquals(m, scannerTokens(m), tokens(new WhitespaceTokenizer(), m));
+        }
+    }
+
+    @Test
+    public void testHashMatchesString() throws Exception
+    {
+        Tokenizer t = new WhitespaceTokenizer();
+        t.reset(stringToInputStream("Nigerian  prince\nmoney"));
+        while (t.next()) {
+            assertEquals(t.token().hashCode(), t.hash());
+            assertEquals(t.token(), new String(t.chars(), 0, t.length()));
+        }
+        assertFalse(t.next());
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        Tokenizer t = new WhitespaceTokenizer();
+        assertEquals(scannerTokens("one two"), tokens(t, "one two"));
+        assertEquals(scannerTokens("three"), tokens(t, "three"));
+        assertEquals(scannerTokens(""), tokens(t, ""));
+    }
+
+    @Test
+    public void testPluggableTokenizer() throws Exception
+    {
+        SpamClassifier f = new SpamClassifier();
+        f.setTokenizer(LowerCaseTokenizer::new);
+        f.addSpamFile(stringToInputStream("Buy buy BUY replica watches"));
+        f.addHamFile(stringToInputStream("Please buy a sandwich"));
+        assertEquals(1, f.getNumSpamOccurrences("buy"));
+        assertEquals(0, f.getNumSpamOccurrences("Buy"));
+        assertEquals(0.5, f.probSpamForMessage(stringToInputStream("BUY")), 0.001);
+    }
+
+    private static class LowerCaseTokenizer implements Tokenizer {
+        private final Tokenizer delegate = new WhitespaceTokenizer();
+        private int hash;
+
+        public void reset(InputStream in) {
+            delegate.reset(in);
+        }
+
+        public boolean next() throws java.io.IOException {
+            if (!delegate.next()) {
+                return false;
+            }
+            char[] c = delegate.chars();
+            hash = 0;
+            for (int i = 0; i < delegate.length(); i++) {
+                c[i] = Character.toLowerCase(c[i]);
+                hash = 31 * hash + c[i];
+            }
+            return true;
+        }
+
+        public char[] chars() {
+            return delegate.chars();
+        }
+
+        public int length() {
+            return delegate.length();
+        }
+
+        public int hash() {
+            return hash;
+        }
+
+        public String token() {
+            return delegate.token();
+        }
+    }
+
+    private static List<String> tokens(Tokenizer t, String message) throws Exception {
+        List<String> list = new ArrayList<String>();
+        t.reset(stringToInputStream(message));
+        while (t.next()) {
+            list.add(t.token());
+        }
+        return list;
+    }
+
+    private static List<String> scannerTokens(String message) {
+        List<String> list = new ArrayList<String>();
+        Scanner scan = new Scanner(stringToInputStream(message));
+        while (scan.hasNext()) {
+            list.add(scan.next());
+        }
+        return list;
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
@@ -0,0 +1,71 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.TrainingJournal;
+
+public class TestTrainingJournal
+{
+    @Test
+    public void testStreamsAreCounted() throws Exception
+    {
+        SpamClassifier f=new SpamClassifier();
+        f.addSpamFile(stringToInputStream("buy now"));
+        f.addSpamFile(stringToInputStream("buy later"), "spam.txt");
+        f.addHamFile(stringToInputStream("see you later"));
+        assertEquals(2, f.getNumSpamMessages());
+        assertEquals(1, f.getNumHamMessages());
+        assertEquals(2, f.getNumSpamOccurrences("buy"));
+        // later is in 2 of the 3 messages
+        assertEquals(2.0 / 3, f.probWord("later"), 0.000001);
+    }
+
+    @Test
+    public void testJournal() throws Exception
+    {
+        Path file=Files.createTempFile("training", ".journal");
+        try {
+            SpamClassifier f=new SpamClassifier();
+            try (TrainingJournal journal=new TrainingJournal(file)) {
+                f.setTrainingJournal(journal);
+                f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+                f.addSpamFile(stringToInputStream("buy now"), "inbox/42");
+                f.addSpamFile(stringToInputStream("buy later"));
+            }
+            final List<String> entries=new ArrayList<>();
+            TrainingJournal.read(file, (spam, source) -> entries.add((spam ? "S " : "H ") + source));
+            assertEquals(4, entries.size());
+            assertEquals("H ham1.txt", entries.get(0));
+            assertEquals("H ham2.txt", entries.get(1));
+            assertEquals("S inbox/42", entries.get(2));
+            assertEquals("S -", entries.get(3));
+
+            // a reopened journal appends
+            try (TrainingJournal journal=new TrainingJournal(file)) {
+                f.setTrainingJournal(journal);
+                f.addHamFile(stringToInputStream("hello"), "more");
+            }
+            entries.clear();
+            TrainingJournal.read(file, (spam, source) -> entries.add(source));
+            assertEquals(5, entries.size());
+            assertEquals(3, f.getNumHamMessages());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}
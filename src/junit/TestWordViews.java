@@ -0,0 +1,99 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bayes.classifier.impl.SpamClassifier;
+import bayes.classifier.impl.WordCursor;
+
+public class TestWordViews
+{
+    SpamClassifier f;
+
+    @Before
+    public void setup() throws Exception {
+        f=new SpamClassifier();
+        f.addAllHamFilesInDirectory(new File("docs/basictest/ham"));
+        f.addAllSpamFilesInDirectory(new File("docs/basictest/spam"));
+    }
+
+    @Test
+    public void testAllWordsIsUnion() throws Exception
+    {
+        Set<String> union=new HashSet<>(f.getAllSpamWords());
+        union.addAll(f.getAllHamWords());
+        assertEquals(union, f.getAllWords());
+        assertEquals(union.size(), f.getAllWords().size());
+        assertTrue(f.getAllWords().contains("sandwich"));
+        assertFalse(f.getAllWords().contains("thisisnotarealword"));
+    }
+
+    @Test
+    public void testViewsFollowTraining() throws Exception
+    {
+        Set<String> all=f.getAllWords();
+        Set<String> ham=f.getAllHamWords();
+        int size=all.size();
+        f.addHamFile(stringToInputStream("brandnewword Nigerian"));
+        assertEquals(size + 1, all.size());
+        assertTrue(all.contains("brandnewword"));
+        assertTrue(ham.contains("Nigerian"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws Exception
+    {
+        f.getAllWords().add("foo");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSpamReadOnly() throws Exception
+    {
+        f.getAllSpamWords().remove("foo");
+    }
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        Set<String> seen=new HashSet<>();
+        WordCursor words=f.words();
+        while (words.next()) {
+            String w=words.word();
+            assertTrue(seen.add(w));
+            assertEquals(w, f.getNumSpamOccurrences(w), words.spamCount());
+            assertEquals(w, f.getNumHamOccurrences(w), words.hamCount());
+        }
+        assertFalse(words.next());
+        assertEquals(f.getAllWords(), seen);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCursorBeforeFirst() throws Exception
+    {
+        f.words().word();
+    }
+
+    @Test
+    public void testHashedHasNoWords() throws Exception
+    {
+        SpamClassifier h=new SpamClassifier();
+        h.setHashedFeatures(10);
+        h.addSpamFile(stringToInputStream("buy now"));
+        assertFalse(h.words().next());
+        assertTrue(h.getAllWords().isEmpty());
+    }
+
+    private static InputStream stringToInputStream(String message) {
+        return new ByteArrayInputStream(message.getBytes());
+    }
+}